@@ -0,0 +1,245 @@
+package clustream;
+
+import java.util.*;
+
+/**
+ * A uniform grid over the centroids of the micro-clusters, used to find the nearest cluster to a location
+ * without scanning all the clusters. The cell size is chosen when the grid is rebuilt, so that there are about
+ * as many cells as clusters in the bounding box of the centroids. A cluster moves to another cell when its
+ * centroid does, and the search visits the rings of cells around the location until no closer cluster can exist.
+ */
+public class CentroidIndex {
+
+    static final double MIN_CELL_SIZE = 1e-6; // keeps the cell coordinates within int
+
+    double cellSize = 0.01;
+    Map<Long, List<MicroCluster>> cells = new HashMap<Long, List<MicroCluster>>(); // key: cell id
+    Map<Integer, Long> cellOf = new HashMap<Integer, Long>(); // key: cluster id, value: cell id
+    // the range of the occupied cells, which only grows until the next rebuild.
+    int minX = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxY = Integer.MIN_VALUE;
+
+    // choose the cell size by the current centroids, and index them again.
+    public void rebuild(Collection<MicroCluster> clusters) {
+        double minLng = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE;
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        for (MicroCluster cluster : clusters) {
+            if (cluster.size() == 0)
+                continue;
+            minLng = Math.min(minLng, cluster.getCentroidLng());
+            maxLng = Math.max(maxLng, cluster.getCentroidLng());
+            minLat = Math.min(minLat, cluster.getCentroidLat());
+            maxLat = Math.max(maxLat, cluster.getCentroidLat());
+        }
+        if (clusters.size() > 1 && minLng <= maxLng) {
+            double width = maxLng - minLng;
+            double height = maxLat - minLat;
+            double size = width > 0 && height > 0 ? Math.sqrt(width * height / clusters.size())
+                    : Math.max(width, height) / clusters.size();
+            if (size > 0)
+                cellSize = Math.max(MIN_CELL_SIZE, size);
+        }
+        cells.clear();
+        cellOf.clear();
+        minX = minY = Integer.MAX_VALUE;
+        maxX = maxY = Integer.MIN_VALUE;
+        for (MicroCluster cluster : clusters)
+            add(cluster);
+    }
+
+    // the empty clusters have no centroid, and are never the nearest.
+    public void add(MicroCluster cluster) {
+        if (cluster.size() == 0)
+            return;
+        int x = toCell(cluster.getCentroidLng());
+        int y = toCell(cluster.getCentroidLat());
+        long cellId = toCellId(x, y);
+        List<MicroCluster> members = cells.get(cellId);
+        if (members == null) {
+            members = new ArrayList<MicroCluster>(2);
+            cells.put(cellId, members);
+        }
+        members.add(cluster);
+        cellOf.put(cluster.getId(), cellId);
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+    }
+
+    public void remove(MicroCluster cluster) {
+        Long cellId = cellOf.remove(cluster.getId());
+        if (cellId == null)
+            return;
+        List<MicroCluster> members = cells.get(cellId);
+        members.remove(cluster);
+        if (members.isEmpty())
+            cells.remove(cellId);
+    }
+
+    // move the cluster to the cell of its current centroid.
+    public void update(MicroCluster cluster) {
+        Long cellId = cellOf.get(cluster.getId());
+        if (cellId != null && cellId == toCellId(toCell(cluster.getCentroidLng()), toCell(cluster.getCentroidLat())))
+            return;
+        remove(cluster);
+        add(cluster);
+    }
+
+    public int size() {
+        return cellOf.size();
+    }
+
+    /**
+     * Find the clusters whose centroids are nearest to the location, skipping the cluster with the excluded id.
+     * All the clusters at the min distance are put into the results, so that the caller can break the ties.
+     * Return the min distance, or Double.MAX_VALUE if there is no cluster.
+     */
+    public double findNearest(double lng, double lat, int excludedId, List<MicroCluster> results) {
+        results.clear();
+        double minDist = Double.MAX_VALUE;
+        if (cells.isEmpty())
+            return minDist;
+        int cx = toCell(lng);
+        int cy = toCell(lat);
+        // the rings closer than the occupied range are empty, and the ones beyond it too.
+        int start = Math.max(0, Math.max(Math.max(minX - cx, cx - maxX), Math.max(minY - cy, cy - maxY)));
+        int end = Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy));
+        for (int r = start; r <= end; r++) {
+            // the cells on ring r are at least (r - 1) * cellSize away; one more ring is visited against rounding.
+            if (r >= 2 && minDist < (r - 2) * cellSize)
+                break;
+            for (int x = Math.max(cx - r, minX); x <= Math.min(cx + r, maxX); x++) {
+                if (cy - r >= minY)
+                    minDist = visitCell(x, cy - r, lng, lat, excludedId, minDist, results);
+                if (r > 0 && cy + r <= maxY)
+                    minDist = visitCell(x, cy + r, lng, lat, excludedId, minDist, results);
+            }
+            for (int y = Math.max(cy - r + 1, minY); y <= Math.min(cy + r - 1, maxY); y++) {
+                if (cx - r >= minX)
+                    minDist = visitCell(cx - r, y, lng, lat, excludedId, minDist, results);
+                if (cx + r <= maxX)
+                    minDist = visitCell(cx + r, y, lng, lat, excludedId, minDist, results);
+            }
+        }
+        return minDist;
+    }
+
+    /**
+     * Find the k nearest clusters to the location, skipping the cluster with the excluded id; the clusters tied
+     * with the k-th one are included too. Return the distance of the k-th nearest cluster, or Double.MAX_VALUE if
+     * there are fewer than k clusters, in which case all of them are put into the results.
+     */
+    public double findKNearest(double lng, double lat, int k, int excludedId, List<MicroCluster> results) {
+        results.clear();
+        double kthDist = Double.MAX_VALUE;
+        if (cells.isEmpty())
+            return kthDist;
+        int cx = toCell(lng);
+        int cy = toCell(lat);
+        int start = Math.max(0, Math.max(Math.max(minX - cx, cx - maxX), Math.max(minY - cy, cy - maxY)));
+        int end = Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy));
+        for (int r = start; r <= end; r++) {
+            if (r >= 2 && kthDist < (r - 2) * cellSize)
+                break;
+            int numBefore = results.size();
+            collectRing(cx, cy, r, excludedId, results);
+            if (results.size() >= k && results.size() > numBefore)
+                kthDist = calcKthDist(lng, lat, k, results);
+        }
+        if (kthDist < Double.MAX_VALUE)
+            retainWithin(lng, lat, kthDist, results);
+        return kthDist;
+    }
+
+    // find the clusters within the distance to the location, skipping the cluster with the excluded id.
+    public void findWithin(double lng, double lat, double radius, int excludedId, List<MicroCluster> results) {
+        results.clear();
+        if (cells.isEmpty())
+            return;
+        int cx = toCell(lng);
+        int cy = toCell(lat);
+        int start = Math.max(0, Math.max(Math.max(minX - cx, cx - maxX), Math.max(minY - cy, cy - maxY)));
+        int end = Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy));
+        for (int r = start; r <= end; r++) {
+            if (r >= 2 && radius < (r - 2) * cellSize)
+                break;
+            collectRing(cx, cy, r, excludedId, results);
+        }
+        retainWithin(lng, lat, radius, results);
+    }
+
+    // put the clusters in the cells on ring r around the cell (cx, cy) into the results.
+    private void collectRing(int cx, int cy, int r, int excludedId, List<MicroCluster> results) {
+        for (int x = Math.max(cx - r, minX); x <= Math.min(cx + r, maxX); x++) {
+            if (cy - r >= minY)
+                collectCell(x, cy - r, excludedId, results);
+            if (r > 0 && cy + r <= maxY)
+                collectCell(x, cy + r, excludedId, results);
+        }
+        for (int y = Math.max(cy - r + 1, minY); y <= Math.min(cy + r - 1, maxY); y++) {
+            if (cx - r >= minX)
+                collectCell(cx - r, y, excludedId, results);
+            if (cx + r <= maxX)
+                collectCell(cx + r, y, excludedId, results);
+        }
+    }
+
+    private void collectCell(int x, int y, int excludedId, List<MicroCluster> results) {
+        List<MicroCluster> members = cells.get(toCellId(x, y));
+        if (members == null)
+            return;
+        for (MicroCluster cluster : members) {
+            if (cluster.getId() != excludedId)
+                results.add(cluster);
+        }
+    }
+
+    private double calcKthDist(double lng, double lat, int k, List<MicroCluster> clusters) {
+        double[] dists = new double[clusters.size()];
+        for (int i = 0; i < dists.length; i++)
+            dists[i] = clusters.get(i).calcDist(lng, lat);
+        Arrays.sort(dists);
+        return dists[k - 1];
+    }
+
+    private void retainWithin(double lng, double lat, double radius, List<MicroCluster> clusters) {
+        Iterator<MicroCluster> it = clusters.iterator();
+        while (it.hasNext()) {
+            if (it.next().calcDist(lng, lat) > radius)
+                it.remove();
+        }
+    }
+
+    private double visitCell(int x, int y, double lng, double lat, int excludedId, double minDist,
+                             List<MicroCluster> results) {
+        List<MicroCluster> members = cells.get(toCellId(x, y));
+        if (members == null)
+            return minDist;
+        for (MicroCluster cluster : members) {
+            if (cluster.getId() == excludedId)
+                continue;
+            double dist = cluster.calcDist(lng, lat);
+            if (dist < minDist) {
+                minDist = dist;
+                results.clear();
+                results.add(cluster);
+            } else if (dist == minDist) {
+                results.add(cluster);
+            }
+        }
+        return minDist;
+    }
+
+    private int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    // pack the two cell coordinates into one key.
+    private long toCellId(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+}
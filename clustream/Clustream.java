@@ -1,6 +1,7 @@
 package clustream;
 
 import geo.GeoTweet;
+import geo.TweetStore;
 import org.apache.commons.math3.linear.RealVector;
 import utils.Utils;
 
@@ -27,6 +28,11 @@ public class Clustream {
     int toAssignClusterId = 0;
     // the clusters
 	Map<Integer, MicroCluster> clusters = new HashMap<Integer, MicroCluster>();
+    // the grid over the centroids of the clusters, for the nearest cluster queries
+    CentroidIndex centroidIndex = new CentroidIndex();
+    List<MicroCluster> nearestClusters = new ArrayList<MicroCluster>(); // the results of the last query
+    // number of nearest clusters that each cluster is first paired with when merging
+    static final int NUM_MERGE_NEIGHBORS = 3;
     // pyramid time frame that stores the snapshots
 	Pyramid ptf = new Pyramid();
     // stats
@@ -74,20 +80,39 @@ public class Clustream {
             clusters.put(toAssignClusterId, cluster);
             toAssignClusterId ++;
         }
+        centroidIndex.rebuild(clusters.values());
     }
 
     /***************************  Clustering ****************************/
     // Note: the tweets should come in the ascending order of timestamp.
     public void update(GeoTweet tweet) throws IOException {
+        List<Integer> entityIds = tweet.getEntityIds();
+        int[] ids = new int[entityIds.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = entityIds.get(i);
+        update(tweet.getTimestamp(), tweet.getLocation().getLng(), tweet.getLocation().getLat(), ids, 0, ids.length);
+    }
+
+    // update with the tweet at the index of the store, read from its columns.
+    public void update(TweetStore store, int index) throws IOException {
+        update(store.getTimestamp(index), store.getLng(index), store.getLat(index),
+                store.getEntityPool(), store.getEntityStart(index), store.getEntityEnd(index));
+    }
+
+    // the entities of the tweet are in entityIds[from, to).
+    private void update(long timestamp, double lng, double lat, int[] entityIds, int from, int to) throws IOException {
         long start = System.currentTimeMillis();
-        currentTimestamp = tweet.getTimestamp();
+        currentTimestamp = timestamp;
         tweetCnt ++;
         // 2.1 try to absorb this tweet to existing clusters
-        int chosenID = findToMergeCluster(tweet.getLocation().toRealVector());
+        int chosenID = findToMergeCluster(lng, lat);
         if (chosenID < 0)	// 2.1.1 no close cluster exists, create a new cluster
-            createNewCluster(tweet);
-        else	// 2.1.2 Data fits, put into cluster and be happy
-            clusters.get(chosenID).absorb(tweet);
+            createNewCluster(timestamp, lng, lat, entityIds, from, to);
+        else {	// 2.1.2 Data fits, put into cluster and be happy
+            MicroCluster cluster = clusters.get(chosenID);
+            cluster.absorb(timestamp, lng, lat, entityIds, from, to);
+            centroidIndex.update(cluster);
+        }
         // 2.2 periodically check outdated clusters
         if (tweetCnt % numTweetPeriod == 0) {
             removeOutdated();
@@ -106,9 +131,9 @@ public class Clustream {
     }
 
 
-    private int findToMergeCluster(RealVector loc) {
-        MicroCluster nearestCluster = findNearestCluster(loc);
-        double dist = loc.getDistance(nearestCluster.getCentroid());
+    private int findToMergeCluster(double lng, double lat) {
+        MicroCluster nearestCluster = findNearestCluster(lng, lat);
+        double dist = nearestCluster.calcDist(lng, lat);
         // Check whether tweet fits into closest cluster
         if (dist > computeMBS(nearestCluster)) {
             noHitCount ++;
@@ -119,52 +144,43 @@ public class Clustream {
     }
 
     // Find the closest cluster
-    private MicroCluster findNearestCluster(RealVector loc) {
-        double minDist = Double.MAX_VALUE;
-        MicroCluster nearestCluster = null;
-        // get the closest cluster
+    private MicroCluster findNearestCluster(double lng, double lat) {
+        centroidIndex.findNearest(lng, lat, -1, nearestClusters);
+        if (nearestClusters.size() <= 1)
+            return nearestClusters.isEmpty() ? null : nearestClusters.get(0);
+        // break the ties by the order of the cluster map, the same as a linear scan over the clusters.
         for (MicroCluster cluster : clusters.values()) {
-            RealVector centroid = cluster.getCentroid();
-            double dist = loc.getDistance(centroid);
-            if (dist < minDist) {
-                nearestCluster = cluster;
-                minDist = dist;
-            }
+            if (nearestClusters.contains(cluster))
+                return cluster;
         }
-        return nearestCluster;
+        return null;
     }
 
     private double computeMBS(MicroCluster cluster) {
         double boundaryDistance;
         int size = cluster.size();
-        RealVector centroid = cluster.getCentroid();
         if (size > 1) {
             // when there are multiple points, calc the RMS as the boundary distance
-            double squareSum = cluster.getSquareSum().getL1Norm();
-            double centroidNorm = centroid.getNorm();
+            double squareSum = Math.abs(cluster.getSquareSumLng()) + Math.abs(cluster.getSquareSumLat()); // L1 norm
+            double lng = cluster.getCentroidLng();
+            double lat = cluster.getCentroidLat();
+            double centroidNorm = Math.sqrt(lng * lng + lat * lat);
             boundaryDistance = Math.sqrt(squareSum / size - centroidNorm * centroidNorm);
         } else {
-            // if there is only one point in the cluster, find the distance to the nearest neighbor
-            boundaryDistance = Double.MAX_VALUE;
-            for (MicroCluster neighbor : clusters.values()) {
-                // do not count the cluster itself
-                if (neighbor.getId() == cluster.getId())
-                    continue;
-                RealVector otherCentroid = neighbor.getCentroid();
-                double dist = otherCentroid.getDistance(centroid);
-                if (dist < boundaryDistance)
-                    boundaryDistance = dist;
-            }
+            // if there is only one point in the cluster, find the distance to the nearest neighbor, not counting itself
+            boundaryDistance = centroidIndex.findNearest(cluster.getCentroidLng(), cluster.getCentroidLat(),
+                    cluster.getId(), nearestClusters);
         }
         return boundaryDistance * mbsFactor;
     }
 
 
     // create a new cluster for a single point.
-    void createNewCluster(GeoTweet tweet) {
-        List<GeoTweet> list = new ArrayList<GeoTweet>();
-        list.add(tweet);
-        clusters.put(toAssignClusterId, new MicroCluster(list, toAssignClusterId));
+    void createNewCluster(long timestamp, double lng, double lat, int[] entityIds, int from, int to) {
+        MicroCluster cluster = new MicroCluster(toAssignClusterId);
+        cluster.absorb(timestamp, lng, lat, entityIds, from, to);
+        clusters.put(toAssignClusterId, cluster);
+        centroidIndex.add(cluster);
         toAssignClusterId ++;
     }
 
@@ -179,7 +195,7 @@ public class Clustream {
                 removeIDs.add(cluster.getId());
         }
         for (Integer id : removeIDs)
-            clusters.remove(id);
+            centroidIndex.remove(clusters.remove(id));
         outdatedCount += removeIDs.size();
     }
 
@@ -188,101 +204,155 @@ public class Clustream {
 	void mergeCluster() {
         // the number of merge operations that need to be performed
         double toMergeCnt = clusters.size() * (1 - mc);
-        // create a heap
-        Queue<MicroClusterPair> pairHeap = createHeap();
-        // compute pair-wise similarities among current clusters and update the heap.
-        updateHeap(pairHeap);
-        // mergeMap is used to record the merge history: <original cluster id, new cluster id>
-		Map<Integer, Integer> mergeMap = new HashMap<Integer, Integer>();
-        int mergeCnt = 0;
-		while (!pairHeap.isEmpty()) {
-			if (mergeCnt >= toMergeCnt)
-				break;
-			MicroClusterPair pair = pairHeap.poll();
-			int idA = pair.clusterA.getId();
-			int idB = pair.clusterB.getId();
-			boolean mergedA = mergeMap.containsKey(idA);
-			boolean mergedB = mergeMap.containsKey(idB);
-			if (!mergedA && !mergedB) {
-                // when neither A and B have been merged before, merge B into A, and delete B from the current cluster set.
-				pair.clusterA.merge(pair.clusterB);
-				mergeMap.put(idA, idA);
-				mergeMap.put(idB, idA);
-				this.clusters.remove(idB);
-			}
-			else if (mergedA && !mergedB) {
-                // when A has been merged before and B has not, merge B into A, and delete B from the list.
-				int bigClusterId = mergeMap.get(idA);
-				MicroCluster bigCluster = clusters.get(bigClusterId);
-				bigCluster.merge(pair.clusterB);
-				mergeMap.put(idB, bigClusterId);
-				this.clusters.remove(idB);
-			}
-			else if (!mergedA && mergedB) {
-                // when B has been merged and A has not, merge A into B, and delete A from the list.
-				int bigClusterId = mergeMap.get(idB);
-				MicroCluster bigCluster = clusters.get(bigClusterId);
-				bigCluster.merge(pair.clusterA);
-				mergeMap.put(idA, bigClusterId);
-                this.clusters.remove(idA);
-			}
-			else {
-                // when A and B have both been merged, check whether they belong to the same composite cluster, if yes, then no action
-                // otherwise, merge bigB to bigA.
-				int bigClusterIdA = mergeMap.get(idA);
-				int bigClusterIdB = mergeMap.get(idB);
-				if (bigClusterIdA != bigClusterIdB) {
-					MicroCluster bigClusterA = clusters.get(bigClusterIdA);
-					bigClusterA.merge(clusters.get(bigClusterIdB));
-					// update the member clusters of bigClusterB in merge map
-					Set<Integer> needUpdate = new HashSet<Integer>();
-					for (Map.Entry<Integer, Integer> entry : mergeMap.entrySet()) {
-						if (entry.getValue() == bigClusterIdB)
-							needUpdate.add(entry.getKey());
-					}
-					for (Integer updateID : needUpdate)
-						mergeMap.put(updateID, bigClusterIdA);
-					this.clusters.remove(bigClusterIdB);
-				}
-			}
-            mergeCnt ++;
-		}
+        List<MicroCluster> list = new ArrayList<MicroCluster>(clusters.values());
+        // the closest pairs among current clusters, in the ascending order of distance.
+        List<MicroClusterPair> pairs = findClosestPairs(list, (int) Math.ceil(toMergeCnt));
+        // union-find over the positions in the list: the parent of each cluster, and the number of original
+        // clusters in each composite cluster, whose root is the cluster that the others are merged into.
+        int[] parent = new int[list.size()];
+        int[] groupSize = new int[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            parent[i] = i;
+            groupSize[i] = 1;
+        }
+        for (MicroClusterPair pair : pairs) {
+            int rootA = findRoot(parent, pair.indexA);
+            int rootB = findRoot(parent, pair.indexB);
+            // when A and B belong to the same composite cluster, no action.
+            if (rootA == rootB)
+                continue;
+            if (groupSize[rootB] == 1) {
+                // when B has not been merged before, merge B into the composite cluster of A.
+                absorb(list, parent, groupSize, rootA, rootB);
+            } else if (groupSize[rootA] == 1) {
+                // when B has been merged and A has not, merge A into the composite cluster of B.
+                absorb(list, parent, groupSize, rootB, rootA);
+            } else {
+                // when A and B have both been merged, merge bigB into bigA.
+                absorb(list, parent, groupSize, rootA, rootB);
+            }
+        }
+        // the merged clusters have moved, so the grid is rebuilt for the new centroids.
+        centroidIndex.rebuild(clusters.values());
 	}
 
-    // create a heap that has the ascending order of cluster distance, the head corresponds to the minimum distance
-    private Queue<MicroClusterPair> createHeap() {
-		return new PriorityQueue<MicroClusterPair>(100,
-				new Comparator<MicroClusterPair>() {
-					public int compare(MicroClusterPair t1, MicroClusterPair t2) {
-						if (t1.getDist() < t2.getDist()) return -1;
-						if (t1.getDist() > t2.getDist()) return 1;
-						return 0;
-					}
-				});
+    private int findRoot(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
     }
 
-    private void updateHeap(Queue<MicroClusterPair> pairHeap) {
-        List<MicroCluster> list = new ArrayList<MicroCluster>(clusters.values());
+    // merge the composite cluster rooted at the position from into the one rooted at to.
+    private void absorb(List<MicroCluster> list, int[] parent, int[] groupSize, int to, int from) {
+        list.get(to).merge(list.get(from));
+        this.clusters.remove(list.get(from).getId());
+        parent[from] = to;
+        groupSize[to] += groupSize[from];
+    }
+
+    /**
+     * Find the m closest pairs of the clusters in the list with the centroid index, instead of computing all the
+     * pair-wise distances. Each cluster is first paired with its nearest clusters; a missing pair is farther than
+     * the k-th nearest distances of both its clusters, so only the clusters whose k-th nearest distance is below
+     * the m-th candidate distance are searched again within that distance. The ties are broken by the positions.
+     */
+    private List<MicroClusterPair> findClosestPairs(List<MicroCluster> list, int m) {
+        if (m <= 0)
+            return new ArrayList<MicroClusterPair>();
+        Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+        for (int i = 0; i < list.size(); i++)
+            positions.put(list.get(i).getId(), i);
+        Set<Long> found = new HashSet<Long>();
+        List<MicroClusterPair> pairs = new ArrayList<MicroClusterPair>();
+        double[] kthDists = new double[list.size()];
         for (int i = 0; i < list.size(); i++) {
-            RealVector centroidA = list.get(i).getCentroid();
-            for (int j = i+1; j < list.size(); j++) {
-                RealVector centroidB = list.get(j).getCentroid();
-                double dist = centroidA.getDistance(centroidB);
-                pairHeap.add(new MicroClusterPair(list.get(i), list.get(j), dist));
-            }
+            MicroCluster cluster = list.get(i);
+            if (cluster.size() == 0)
+                continue;
+            kthDists[i] = centroidIndex.findKNearest(cluster.getCentroidLng(), cluster.getCentroidLat(),
+                    NUM_MERGE_NEIGHBORS, cluster.getId(), nearestClusters);
+            addPairs(list, positions, i, nearestClusters, found, pairs);
+        }
+        Collections.sort(pairs, PAIR_ORDER);
+        double threshold = pairs.size() >= m ? pairs.get(m - 1).getDist() : Double.MAX_VALUE;
+        boolean added = false;
+        for (int i = 0; i < list.size(); i++) {
+            MicroCluster cluster = list.get(i);
+            if (cluster.size() == 0 || kthDists[i] >= threshold)
+                continue;
+            centroidIndex.findWithin(cluster.getCentroidLng(), cluster.getCentroidLat(), threshold,
+                    cluster.getId(), nearestClusters);
+            added |= addPairs(list, positions, i, nearestClusters, found, pairs);
+        }
+        if (added)
+            Collections.sort(pairs, PAIR_ORDER);
+        return pairs.size() > m ? pairs.subList(0, m) : pairs;
+    }
+
+    // add the pairs of the cluster at position i and its neighbors that are not found yet.
+    private boolean addPairs(List<MicroCluster> list, Map<Integer, Integer> positions, int i,
+                             List<MicroCluster> neighbors, Set<Long> found, List<MicroClusterPair> pairs) {
+        boolean added = false;
+        for (MicroCluster neighbor : neighbors) {
+            int j = positions.get(neighbor.getId());
+            int a = Math.min(i, j), b = Math.max(i, j);
+            if (!found.add((long) a * list.size() + b))
+                continue;
+            MicroCluster clusterA = list.get(a);
+            double dist = clusterA.calcDist(list.get(b).getCentroidLng(), list.get(b).getCentroidLat());
+            pairs.add(new MicroClusterPair(clusterA, list.get(b), dist, a, b));
+            added = true;
         }
+        return added;
     }
 
+    // the ascending order of cluster distance, then of the positions of the clusters.
+    private static final Comparator<MicroClusterPair> PAIR_ORDER = new Comparator<MicroClusterPair>() {
+        public int compare(MicroClusterPair t1, MicroClusterPair t2) {
+            if (t1.getDist() < t2.getDist()) return -1;
+            if (t1.getDist() > t2.getDist()) return 1;
+            if (t1.indexA != t2.indexA) return t1.indexA < t2.indexA ? -1 : 1;
+            if (t1.indexB != t2.indexB) return t1.indexB < t2.indexB ? -1 : 1;
+            return 0;
+        }
+    };
+
 
     /***************************  Pyramid Time Frame ****************************/
     public Pyramid getPyramid() {
         return ptf;
     }
 
-    private void updatePyramid() {
+    // replace the pyramid, e.g. with one that stores the snapshots on the disk. The new clusters get ids after
+    // those in the pyramid, so that a restored pyramid never sees an id reused by an unrelated cluster.
+    public void setPyramid(Pyramid ptf) {
+        this.ptf = ptf;
+        toAssignClusterId = Math.max(toAssignClusterId, ptf.getNextClusterId());
+    }
+
+    // continue with the clusters in the newest snapshot of the pyramid instead of init, e.g. after restoring
+    // a disk-backed pyramid; return false if the pyramid is empty.
+    public boolean resume() {
+        Snapshot snapshot = ptf.getNewestSnapshot();
+        if (snapshot == null)
+            return false;
+        clusters.clear();
+        for (MicroCluster cluster : snapshot.getClusters().values()) {
+            MicroCluster copy = new MicroCluster(cluster);
+            copy.version = 0;
+            clusters.put(copy.getId(), copy);
+        }
+        currentTimestamp = snapshot.getTimestamp();
+        centroidIndex.rebuild(clusters.values());
+        return true;
+    }
+
+    private void updatePyramid() throws IOException {
         // check whether the current timestamp is a new time frame
         if (ptf.isNewTimeFrame(currentTimestamp)) {
-            ptf.storeSnapshot(currentTimestamp, clusters);
+            ptf.storeSnapshot(currentTimestamp, clusters, toAssignClusterId);
         }
     }
 
@@ -3,7 +3,11 @@ package clustream;
 import geo.GeoTweet;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
+import utils.IntIntMap;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 public class MicroCluster {
@@ -12,18 +16,25 @@ public class MicroCluster {
 	static int MU_THRESHOLD = 50;
 
 	int clusterID = -1;			// cluster id
-    RealVector sum;	  // sum
-	RealVector ssum;  // ssum
+    // the sum and the square sum of the locations, kept as primitives so that absorbing a tweet does not allocate
+    double sumLng = 0;
+    double sumLat = 0;
+    double ssumLng = 0;
+    double ssumLat = 0;
     int num = 0;				// number of tweets in the cluster
 	long ts1 = 0;				// sum(ts)
 	long ts2 = 0;				// sum(square(ts))
     Set<Integer> idSet = null;	// used only if this is a composite cluster
-	Map<Integer, Integer> words = null;	// this map stores the semantic information, <keyword id, count>
+	IntIntMap words = new IntIntMap();	// this map stores the semantic information, <keyword id, count>
+	int version = 0;			// increased on every change, so that an unchanged snapshot copy can be shared
+	boolean frozen = false;		// a snapshot copy, which is shared between snapshots and cannot be changed
 
 	public MicroCluster(int id, RealVector sum, RealVector ssum, long ts1, long ts2, int num) {
 		this.clusterID = id;
-		this.sum = sum;
-		this.ssum = ssum;
+		this.sumLng = sum.getEntry(0);
+		this.sumLat = sum.getEntry(1);
+		this.ssumLng = ssum.getEntry(0);
+		this.ssumLat = ssum.getEntry(1);
 		this.ts1 = ts1;
 		this.ts2 = ts2;
 		this.num = num;
@@ -32,27 +43,30 @@ public class MicroCluster {
     public MicroCluster(MicroCluster other) {
         this.clusterID = other.clusterID;
         this.num = other.num;
-        this.sum = new ArrayRealVector(other.getSum());
-        this.ssum = new ArrayRealVector(other.getSquareSum());
+        this.sumLng = other.sumLng;
+        this.sumLat = other.sumLat;
+        this.ssumLng = other.ssumLng;
+        this.ssumLat = other.ssumLat;
         this.ts1 = other.ts1;
         this.ts2 = other.ts2;
         if (other.idSet != null)
             this.idSet = new HashSet<Integer>(other.idSet);
-        this.words = new HashMap<Integer, Integer>(other.words);
+        this.words = new IntIntMap(other.words);
+        this.version = other.version;
     }
 
     // Initialize a cluster with the given list of tweets and cluster id.
 	public MicroCluster(List<GeoTweet> memberList, int id) {
-		this.clusterID = id;
-		// init num, ssum, sum
-		this.num = 0;
-		this.sum = new ArrayRealVector(2); // sum
-		this.ssum = new ArrayRealVector(2); // ssum
-		this.words = new HashMap<Integer, Integer>();
+		this(id);
 		for (GeoTweet tweet : memberList)
 			absorb(tweet);
 	}
 
+    // Initialize an empty cluster with the given cluster id.
+	public MicroCluster(int id) {
+		this.clusterID = id;
+	}
+
     // whether this is a single cluster or not.
     public boolean isSingle() {
         return idSet == null;
@@ -66,20 +80,53 @@ public class MicroCluster {
         return clusterID;
     }
 
+    // the vector getters return new vectors, and are kept for compatibility.
     public RealVector getSum() {
-        return sum;
+        return new ArrayRealVector(new double[] {sumLng, sumLat});
     }
     
     public RealVector getSquareSum() {
-        return ssum;
+        return new ArrayRealVector(new double[] {ssumLng, ssumLat});
     }
 
     public RealVector getCentroid() {
-        return sum.mapDivide(num);
+        return new ArrayRealVector(new double[] {getCentroidLng(), getCentroidLat()});
+    }
+
+    public double getSquareSumLng() {
+        return ssumLng;
+    }
+
+    public double getSquareSumLat() {
+        return ssumLat;
+    }
+
+    public double getCentroidLng() {
+        return sumLng / num;
     }
 
+    public double getCentroidLat() {
+        return sumLat / num;
+    }
+
+    // the Euclidean distance from the centroid to the location, the same as RealVector.getDistance.
+    public double calcDist(double lng, double lat) {
+        double lngDiff = getCentroidLng() - lng;
+        double latDiff = getCentroidLat() - lat;
+        return Math.sqrt(lngDiff * lngDiff + latDiff * latDiff);
+    }
+
+	// a boxed copy of the word counts, kept for compatibility.
 	public Map<Integer, Integer> getWords() {
-		return words;
+		return words.toMap();
+	}
+
+	public boolean containsWord(int wordId) {
+		return words.containsKey(wordId);
+	}
+
+	public int getWordCount(int wordId) {
+		return words.get(wordId, 0);
 	}
 
     public double getFreshness(double quantile) {
@@ -93,20 +140,32 @@ public class MicroCluster {
 
     // add one tweet
     public void absorb(GeoTweet tweet) {
+        absorb(tweet.getTimestamp(), tweet.getLocation().getLng(), tweet.getLocation().getLat());
+        for (Integer wordId : tweet.getEntityIds())
+            words.addTo(wordId, 1);
+    }
+
+    // add one tweet given by its fields, with the entities in entityIds[from, to).
+    public void absorb(long timestamp, double lng, double lat, int[] entityIds, int from, int to) {
+        absorb(timestamp, lng, lat);
+        for (int i = from; i < to; i++)
+            words.addTo(entityIds[i], 1);
+    }
+
+    private void absorb(long timestamp, double lng, double lat) {
+        beforeChange();
         num ++;
-        ts1 += tweet.getTimestamp();
-        ts2 += tweet.getTimestamp() * tweet.getTimestamp();
-        RealVector loc = tweet.getLocation().toRealVector();
-        sum = sum.add(loc);
-        ssum = ssum.add(loc.ebeMultiply(loc));
-        for (Integer wordId : tweet.getEntityIds()) {
-            int cnt = words.containsKey(wordId) ? words.get(wordId) : 0; // orginal count
-            words.put(wordId, cnt+1);
-        }
+        ts1 += timestamp;
+        ts2 += timestamp * timestamp;
+        sumLng += lng;
+        sumLat += lat;
+        ssumLng += lng * lng;
+        ssumLat += lat * lat;
     }
 
     // merge other to this cluster
 	public void merge(MicroCluster other) {
+		beforeChange();
 		// 1. update idList
 		if (idSet == null)
 			idSet = new HashSet<Integer>();
@@ -119,27 +178,34 @@ public class MicroCluster {
 		num += other.num;
 		ts1 += other.ts1;
 		ts2 += other.ts2;
-        sum = sum.add(other.getSum());
-        ssum = ssum.add(other.getSquareSum());
+        sumLng += other.sumLng;
+        sumLat += other.sumLat;
+        ssumLng += other.ssumLng;
+        ssumLat += other.ssumLat;
 		// 3. update the semantic information
-		for (Map.Entry e : other.getWords().entrySet()) {
-			int wordId = (Integer) e.getKey();
-			int cnt = (Integer) e.getValue();
-			int originalCnt = words.containsKey(wordId) ? words.get(wordId) : 0;
-			words.put(wordId, originalCnt + cnt);
+		IntIntMap otherWords = other.words;
+		for (int pos = 0; pos < otherWords.capacity(); pos++) {
+			if (otherWords.isUsed(pos))
+				words.addTo(otherWords.keyAt(pos), otherWords.valueAt(pos));
 		}
 	}
 
     public void subtract(MicroCluster other) {
-        sum = sum.subtract(other.getSum());
-        ssum = ssum.subtract(other.getSquareSum());
+        beforeChange();
+        sumLng -= other.sumLng;
+        sumLat -= other.sumLat;
+        ssumLng -= other.ssumLng;
+        ssumLat -= other.ssumLat;
         ts1 -= other.ts1;
         ts2 -= other.ts2;
         num -= other.num;
-        for (Map.Entry e : other.getWords().entrySet()) {
-            int wordId = (Integer) e.getKey();
-            int cnt = (Integer) e.getValue();
-            int originalCnt = words.containsKey(wordId) ? words.get(wordId) : 0;
+        IntIntMap otherWords = other.words;
+        for (int pos = 0; pos < otherWords.capacity(); pos++) {
+            if (!otherWords.isUsed(pos))
+                continue;
+            int wordId = otherWords.keyAt(pos);
+            int cnt = otherWords.valueAt(pos);
+            int originalCnt = words.get(wordId, 0);
             if (originalCnt < cnt) {
                 System.err.println("Original count is smaller than the new count!");
                 System.exit(0);
@@ -164,8 +230,8 @@ public class MicroCluster {
 		sb.append(this.num + itemSep);
 		sb.append(this.ts1 + itemSep);
 		sb.append(this.ts2 + itemSep);
-		sb.append(sum.toString() + itemSep);
-		sb.append(ssum.toString() + itemSep);
+		sb.append(getSum().toString() + itemSep);
+		sb.append(getSquareSum().toString() + itemSep);
 		if (this.idSet != null) {
 			for (Integer id : this.idSet)
 				sb.append(id + " ");
@@ -175,6 +241,71 @@ public class MicroCluster {
 		return sb.toString();
 	}
 
+    // write the statistics in the layout of the SnapshotStore files.
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(clusterID);
+        out.writeInt(num);
+        out.writeLong(ts1);
+        out.writeLong(ts2);
+        out.writeDouble(sumLng);
+        out.writeDouble(sumLat);
+        out.writeDouble(ssumLng);
+        out.writeDouble(ssumLat);
+        if (idSet == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(idSet.size());
+            for (Integer id : idSet)
+                out.writeInt(id);
+        }
+        out.writeInt(words.size());
+        for (int pos = 0; pos < words.capacity(); pos++) {
+            if (words.isUsed(pos)) {
+                out.writeInt(words.keyAt(pos));
+                out.writeInt(words.valueAt(pos));
+            }
+        }
+    }
+
+    // make this a snapshot copy; a copy made from it by the copy constructor can be changed again.
+    void freeze() {
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void beforeChange() {
+        if (frozen)
+            throw new IllegalStateException("Cluster " + clusterID + " is a snapshot copy and cannot be changed.");
+        version ++;
+    }
+
+    // read a cluster written by write(); the version is not stored, so it is set to -1, which no live cluster has.
+    public static MicroCluster read(DataInput in) throws IOException {
+        MicroCluster cluster = new MicroCluster(in.readInt());
+        cluster.num = in.readInt();
+        cluster.ts1 = in.readLong();
+        cluster.ts2 = in.readLong();
+        cluster.sumLng = in.readDouble();
+        cluster.sumLat = in.readDouble();
+        cluster.ssumLng = in.readDouble();
+        cluster.ssumLat = in.readDouble();
+        int numIds = in.readInt();
+        if (numIds >= 0) {
+            cluster.idSet = new HashSet<Integer>();
+            for (int i = 0; i < numIds; i++)
+                cluster.idSet.add(in.readInt());
+        }
+        int numWords = in.readInt();
+        cluster.words = new IntIntMap(numWords);
+        for (int i = 0; i < numWords; i++)
+            cluster.words.put(in.readInt(), in.readInt());
+        cluster.version = -1;
+        return cluster;
+    }
+
 //    public static TweetCluster string2TCV(String ss) {
 //        String itemSep = "+";
 //        String[] items = ss.split("\\" + itemSep);	// '+' needs to be processed in regular expression
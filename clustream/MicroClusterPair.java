@@ -5,6 +5,9 @@ public class MicroClusterPair {
 	MicroCluster clusterA;
 	MicroCluster clusterB;
 	double dist;
+	// the positions of the clusters in the list they are taken from, -1 if unknown
+	int indexA = -1;
+	int indexB = -1;
 
 	public MicroClusterPair(MicroCluster cluster1, MicroCluster cluster2, double dist) {
 		this.clusterA = cluster1;
@@ -12,6 +15,12 @@ public class MicroClusterPair {
 		this.dist = dist;
 	}
 
+	public MicroClusterPair(MicroCluster cluster1, MicroCluster cluster2, double dist, int index1, int index2) {
+		this(cluster1, cluster2, dist);
+		this.indexA = index1;
+		this.indexB = index2;
+	}
+
 
 	public double getDist() {
 		return dist;
@@ -1,20 +1,31 @@
 package clustream;
 
+import java.io.IOException;
 import java.util.*;
 
 public class Pyramid {
 
     // parameters
-	private int alpha = 2;
-    private int ll = 3;
+	int alpha = 2;
+    int ll = 3;
 	private int capacity;
 	// order: timestamps
     Map<Integer, LinkedList<Long>> orderMap = new HashMap<Integer, LinkedList<Long>>();
+    // the time frame ids in all the orders, sorted for the range and floor queries
+    TreeSet<Long> timeFrameIds = new TreeSet<Long>();
+    // all the snapshots, or only the recently used ones if they are stored on the disk
     Map<Long, Snapshot> snapshots = new HashMap<Long, Snapshot>();
+    // the disk store of the snapshots, null if they are kept in memory only
+    SnapshotStore store = null;
     // time frame granularity (hour) with respect to the general timestamp (second)
     int timeFrameGranularity = 3600;
     // the newest time frame number
     long currentTimeFrameId = -1;
+    // the id that the clusterer assigns to its next cluster; it is stored with a disk-backed pyramid, so that a
+    // restarted clusterer never reuses the id of a cluster in the stored snapshots.
+    int nextClusterId = 0;
+    // the newest snapshot, whose unchanged cluster copies are shared by the next one
+    Snapshot lastSnapshot = null;
     
 	public Pyramid(int alpha, int ll, int timeFrameGranularity) {
 		this.alpha = alpha;
@@ -27,9 +38,34 @@ public class Pyramid {
 		this.capacity = (int)Math.pow(this.alpha, ll) + 1;
 	}
 
+    // a pyramid whose snapshots are stored in the directory and loaded lazily, keeping the numCachedSnapshots
+    // most recently used ones in memory; the pyramid that was stored in the directory before is restored.
+    public Pyramid(int alpha, int ll, int timeFrameGranularity, String dir, int numCachedSnapshots) throws IOException {
+        this(alpha, ll, timeFrameGranularity);
+        open(dir, numCachedSnapshots);
+    }
+
+    public Pyramid(String dir, int numCachedSnapshots) throws IOException {
+        this();
+        open(dir, numCachedSnapshots);
+    }
+
+    private void open(String dir, final int numCachedSnapshots) throws IOException {
+        store = new SnapshotStore(dir);
+        // the access order makes the eldest entry the least recently used one.
+        snapshots = new LinkedHashMap<Long, Snapshot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+                return size() > numCachedSnapshots;
+            }
+        };
+        if (store.hasIndex())
+            store.readIndex(this);
+    }
+
     // number of snapshots in this pyramid
     public int size() {
-        return snapshots.size();
+        return timeFrameIds.size();
     }
 
     public boolean isNewTimeFrame(long timestamp) {
@@ -40,24 +76,25 @@ public class Pyramid {
         return timestamp / timeFrameGranularity;
     }
 
-	public void storeSnapshot(long timestamp, Map<Integer, MicroCluster> clusters) {
+	public void storeSnapshot(long timestamp, Map<Integer, MicroCluster> clusters, int nextClusterId) throws IOException {
         long timeFrameId = toTimeFrameId(timestamp);
         currentTimeFrameId = timeFrameId;
+        this.nextClusterId = Math.max(this.nextClusterId, nextClusterId);
         // compute which order the snapshot should go to
 		int order = getOrder(timeFrameId);
+        // If the time frame id is already contained in the pyramid, do nothing.
+        if (!timeFrameIds.add(timeFrameId))
+            return;
         // store the snapshort into the corresponding order
+        Long removed = null;
 		if (orderMap.containsKey(order)) {
             // appending to the list, the last one in the list is the newest snapshot.
 			LinkedList<Long> list = orderMap.get(order);
-            // If the time frame id is already contained in the pyramid, do nothing.
-            for (Long existingId : list) {
-                if (timeFrameId == existingId)
-                    return;
-            }
 			list.addLast(timeFrameId);
 			if (list.size() > capacity) {
                 // when the layer is full, delete the oldest snapshot and free the memory
-				Long removed = list.pollFirst();
+				removed = list.pollFirst();
+				timeFrameIds.remove(removed);
 				snapshots.remove(removed);
 			}
 		}
@@ -67,8 +104,16 @@ public class Pyramid {
 			orderMap.put(order, list);
 		}
         // write the snapshot (in memory)
-		Snapshot snapshot = new Snapshot(order, timeFrameId, timestamp, clusters);
+		Snapshot snapshot = new Snapshot(order, timeFrameId, timestamp, clusters, lastSnapshot);
 		snapshots.put(timeFrameId, snapshot);
+		lastSnapshot = snapshot;
+        if (store != null) {
+            // the index is written after the new file and before the deletion, so it never refers to a missing file.
+            store.write(snapshot);
+            store.writeIndex(this);
+            if (removed != null)
+                store.delete(removed);
+        }
 	}
 
 
@@ -87,8 +132,27 @@ public class Pyramid {
 
 
     /************************** Functions for retrieving snapshot(s) **************************/
+    public int getNextClusterId() {
+        return nextClusterId;
+    }
+
+    // the snapshot of the newest time frame, or null if the pyramid is empty.
+    public Snapshot getNewestSnapshot() {
+        return timeFrameIds.isEmpty() ? null : loadSnapshot(timeFrameIds.last());
+    }
+
     public Snapshot loadSnapshot(long timeFrameId) {
-        return snapshots.get(timeFrameId);
+        Snapshot snapshot = snapshots.get(timeFrameId);
+        if (snapshot != null || store == null)
+            return snapshot;
+        try {
+            snapshot = store.read(timeFrameId);
+        } catch (IOException e) {
+            throw new RuntimeException("Loading snapshot " + timeFrameId + " failed.", e);
+        }
+        if (snapshot != null)
+            snapshots.put(timeFrameId, snapshot);
+        return snapshot;
     }
 
     public Snapshot getSnapshotJustBefore(long timestamp) {
@@ -113,50 +177,20 @@ public class Pyramid {
         return results;
     }
 
-    // find the snapshot for a given timestamp, if there is no exact match, return the nearest
+    // find the snapshot for a given timestamp, if there is no exact match, return the nearest one before it;
+    // if there is none before it, return the oldest one, and -1 if the pyramid is empty.
     private long findTimeFrameJustBefore(long queryTimeFrameId) {
-        int order = getOrder(queryTimeFrameId);
-        // note that the snapshots are stored from old to new, namely ascending order of the queryTimeFrameId
-        LinkedList<Long> list = this.orderMap.get(order);
-        // if this is an exact match, return the snapshot
-        if (list.contains(queryTimeFrameId))
-            return queryTimeFrameId;
-        // if no exact match, then find the nearest snapshot before this query queryTimeFrameId
-        long mostRecent = -1;
-        for (LinkedList<Long> sameOrderList : this.orderMap.values()) {
-            for (int i = 0; i < sameOrderList.size(); i++) {
-                long ts = sameOrderList.get(i);
-                if (ts > mostRecent)
-                    mostRecent = ts;
-                if (ts > queryTimeFrameId)
-                    break;
-            }
-        }
-        // find the nearest snapshot.
-        if (mostRecent == -1) {
-            for (LinkedList<Long> sameOrderList : this.orderMap.values()) {
-                long ts = sameOrderList.get(0);
-                if (mostRecent == -1 || ts < mostRecent)
-                    mostRecent = ts;
-            }
-        }
-        return mostRecent;
+        Long floor = timeFrameIds.floor(queryTimeFrameId);
+        if (floor != null)
+            return floor;
+        return timeFrameIds.isEmpty() ? -1 : timeFrameIds.first();
     }
 
     // find the sorted timeFrameIds that fall in a range.
     private List<Long> findTimeFrameBetween(long startTimeFrameId, long endTimeFrameId) {
-        List<Long> results = new ArrayList<Long> ();
-        for (LinkedList<Long> sameOrderList : this.orderMap.values()) {
-            for (int i = 0; i < sameOrderList.size(); i++) {
-                long ts = sameOrderList.get(i);
-                if (ts > endTimeFrameId)
-                    break;
-                if (ts >= startTimeFrameId && ts <= endTimeFrameId)
-                    results.add(ts);
-            }
-        }
-        Collections.sort(results);
-        return results;
+        if (startTimeFrameId > endTimeFrameId)
+            return new ArrayList<Long>();
+        return new ArrayList<Long>(timeFrameIds.subSet(startTimeFrameId, true, endTimeFrameId, true));
     }
 
     public String printStats() {
@@ -1,5 +1,9 @@
 package clustream;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -10,22 +14,44 @@ public class Snapshot {
 	int order;
 	long timeFrameId;
 	long timestamp;
+	// the frozen copies of the clusters, which may be shared with other snapshots.
 	Map<Integer, MicroCluster> clusters;
 	
 	public Snapshot(int order, long timeFrameId, long timestamp, Map<Integer, MicroCluster> clusters) {
+		this(order, timeFrameId, timestamp, clusters, null);
+	}
+
+	// copy the clusters, sharing the copies in the previous snapshot of the clusters that have not changed since.
+	public Snapshot(int order, long timeFrameId, long timestamp, Map<Integer, MicroCluster> clusters, Snapshot prevSnapshot) {
 		this.order = order;
 		this.timeFrameId = timeFrameId;
 		this.timestamp = timestamp;
 		this.clusters = new HashMap<Integer, MicroCluster>();
-        for (Map.Entry e : clusters.entrySet()) {
-            int clusterId = (Integer) e.getKey();
-            MicroCluster cluster = (MicroCluster) e.getValue();
-            this.clusters.put(clusterId, new MicroCluster(cluster));
+        for (Map.Entry<Integer, MicroCluster> e : clusters.entrySet()) {
+            MicroCluster cluster = e.getValue();
+            MicroCluster prevCopy = prevSnapshot == null ? null : prevSnapshot.clusters.get(e.getKey());
+            if (prevCopy != null && prevCopy.version == cluster.version)
+                this.clusters.put(e.getKey(), prevCopy);
+            else
+                this.clusters.put(e.getKey(), freezeCopy(cluster));
         }
 	}
 
+	private static MicroCluster freezeCopy(MicroCluster cluster) {
+		MicroCluster copy = new MicroCluster(cluster);
+		copy.freeze();
+		return copy;
+	}
+
+	private Snapshot(int order, long timeFrameId, long timestamp) {
+		this.order = order;
+		this.timeFrameId = timeFrameId;
+		this.timestamp = timestamp;
+		this.clusters = new HashMap<Integer, MicroCluster>();
+	}
+
 	public Map<Integer, MicroCluster> getClusters() {
-        return clusters;
+        return Collections.unmodifiableMap(clusters);
 	}
 
 	public long getTimestamp() {
@@ -73,6 +99,30 @@ public class Snapshot {
 		return diffSet;
 	}
 
+	// write the snapshot in the layout of the SnapshotStore files.
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(order);
+		out.writeLong(timeFrameId);
+		out.writeLong(timestamp);
+		out.writeInt(clusters.size());
+		for (MicroCluster cluster : clusters.values())
+			cluster.write(out);
+	}
+
+	public static Snapshot read(DataInput in) throws IOException {
+		int order = in.readInt();
+		long timeFrameId = in.readLong();
+		long timestamp = in.readLong();
+		Snapshot snapshot = new Snapshot(order, timeFrameId, timestamp);
+		int numClusters = in.readInt();
+		for (int i = 0; i < numClusters; i++) {
+			MicroCluster cluster = MicroCluster.read(in);
+			cluster.freeze();
+			snapshot.clusters.put(cluster.getId(), cluster);
+		}
+		return snapshot;
+	}
+
 	@Override
 	public String toString() {
 		String itemSep = "=";
@@ -0,0 +1,149 @@
+package clustream;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A directory of binary snapshot files, which lets a Pyramid keep its snapshots on the disk and survive restarts.
+ * Every snapshot is written to its own file named by the time frame id, and the layers of the pyramid are kept
+ * in an index file that is replaced after every change.
+ *
+ * Layout of a snapshot file (big-endian, as written by DataOutputStream):
+ * int magic, int version, int order, long timeFrameId, long timestamp, int numClusters, then for each cluster:
+ * int clusterID, int num, long ts1, long ts2, double sumLng, double sumLat, double ssumLng, double ssumLat,
+ * int number of member ids (-1 for a single cluster) followed by the ids, int number of words followed by
+ * (int word id, int count) pairs.
+ *
+ * Layout of the index file:
+ * int magic, int version, int alpha, int ll, int timeFrameGranularity, long currentTimeFrameId, int nextClusterId,
+ * int numOrders, then for each order: int order, int number of time frames, long[] time frame ids from old to new.
+ */
+public class SnapshotStore {
+
+    static final int SNAPSHOT_MAGIC = 0x47505346; // "GPSF"
+    static final int INDEX_MAGIC = 0x47504958; // "GPIX"
+    static final int VERSION = 2;
+    static final String INDEX_FILE = "pyramid.idx";
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    File dir;
+
+    public SnapshotStore(String dir) throws IOException {
+        this.dir = new File(dir);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs())
+            throw new IOException("Cannot create the snapshot directory: " + dir);
+    }
+
+    public boolean hasIndex() {
+        return new File(dir, INDEX_FILE).exists();
+    }
+
+    public void write(Snapshot snapshot) throws IOException {
+        File file = getFile(snapshot.timeFrameId);
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(VERSION);
+            snapshot.write(out);
+        } finally {
+            out.close();
+        }
+        replace(tmpFile, file);
+    }
+
+    // read the snapshot of the time frame, or return null if it is not stored.
+    public Snapshot read(long timeFrameId) throws IOException {
+        File file = getFile(timeFrameId);
+        if (!file.exists())
+            return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                throw new IOException("Not a snapshot file: " + file);
+            if (in.readInt() != VERSION)
+                throw new IOException("Unsupported version of the snapshot file: " + file);
+            return Snapshot.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void delete(long timeFrameId) {
+        File file = getFile(timeFrameId);
+        if (file.exists() && !file.delete())
+            System.out.println("Failed to delete the snapshot file: " + file);
+    }
+
+    public void writeIndex(Pyramid pyramid) throws IOException {
+        File file = new File(dir, INDEX_FILE);
+        File tmpFile = new File(dir, INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pyramid.alpha);
+            out.writeInt(pyramid.ll);
+            out.writeInt(pyramid.timeFrameGranularity);
+            out.writeLong(pyramid.currentTimeFrameId);
+            out.writeInt(pyramid.nextClusterId);
+            out.writeInt(pyramid.orderMap.size());
+            for (Map.Entry<Integer, LinkedList<Long>> e : pyramid.orderMap.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (Long timeFrameId : e.getValue())
+                    out.writeLong(timeFrameId);
+            }
+        } finally {
+            out.close();
+        }
+        replace(tmpFile, file);
+    }
+
+    // restore the layers, the current time frame and the next cluster id of the pyramid from the index file.
+    public void readIndex(Pyramid pyramid) throws IOException {
+        File file = new File(dir, INDEX_FILE);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != INDEX_MAGIC)
+                throw new IOException("Not a pyramid index file: " + file);
+            if (in.readInt() != VERSION)
+                throw new IOException("Unsupported version of the pyramid index file: " + file);
+            int alpha = in.readInt();
+            int ll = in.readInt();
+            int timeFrameGranularity = in.readInt();
+            if (alpha != pyramid.alpha || ll != pyramid.ll || timeFrameGranularity != pyramid.timeFrameGranularity)
+                throw new IOException("The stored pyramid has different parameters: alpha=" + alpha + ", ll=" + ll
+                        + ", timeFrameGranularity=" + timeFrameGranularity);
+            pyramid.currentTimeFrameId = in.readLong();
+            pyramid.nextClusterId = in.readInt();
+            pyramid.orderMap.clear();
+            pyramid.timeFrameIds.clear();
+            int numOrders = in.readInt();
+            for (int i = 0; i < numOrders; i++) {
+                int order = in.readInt();
+                int size = in.readInt();
+                LinkedList<Long> list = new LinkedList<Long>();
+                for (int j = 0; j < size; j++)
+                    list.addLast(in.readLong());
+                pyramid.timeFrameIds.addAll(list);
+                pyramid.orderMap.put(order, list);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private File getFile(long timeFrameId) {
+        return new File(dir, timeFrameId + SNAPSHOT_SUFFIX);
+    }
+
+    // move the completely written file over the old one, so that a crash never leaves a partial file.
+    private void replace(File tmpFile, File file) throws IOException {
+        if (file.exists() && !file.delete())
+            throw new IOException("Cannot replace the file: " + file);
+        if (!tmpFile.renameTo(file))
+            throw new IOException("Cannot rename " + tmpFile + " to " + file);
+    }
+
+}
@@ -2,10 +2,13 @@ package demo;
 
 import geo.GeoTweet;
 import geo.TweetDatabase;
+import geo.TweetFile;
+import geo.TweetFileReader;
 import graph.Graph;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import utils.TsvReader;
+
+import java.io.FileInputStream;
 import java.io.IOException;
 
 /**
@@ -13,7 +16,8 @@ import java.io.IOException;
  */
 public class Database {
 
-    BufferedReader streamReader;
+    TsvReader streamReader;
+    TweetFileReader binaryReader; // used instead of the stream reader for the binary tweet files
     TweetDatabase initialTweets; // the set of initial tweets, used to initialize the pyramid.
     Graph graph; // The entity graph.
 
@@ -34,10 +38,14 @@ public class Database {
     // load the initial tweets and get the stream reader ready.
     public void loadInitialTweets(String tweetFile, int numInitTweets) throws Exception {
         initialTweets = new TweetDatabase();
-        streamReader = new BufferedReader(new FileReader(tweetFile));
+        if (TweetFile.isBinary(tweetFile))
+            binaryReader = new TweetFileReader(tweetFile);
+        else
+            streamReader = new TsvReader(new FileInputStream(tweetFile));
         for (int i=0; i<numInitTweets; i++) {
-            String line = streamReader.readLine();
-            GeoTweet tweet = new GeoTweet(line);
+            GeoTweet tweet = readTweet();
+            if (tweet == null)
+                break;
             initialTweets.add(tweet);
         }
         System.out.println("Finished loading initial tweets. Count:" + initialTweets.size());
@@ -46,12 +54,18 @@ public class Database {
     public GeoTweet nextTweet() throws IOException {
         GeoTweet tweet = null;
         while (tweet == null || tweet.numEntity() == 0) {
-            String line = streamReader.readLine();
-            if (line == null)
+            tweet = readTweet();
+            if (tweet == null)
                 return null;
-            tweet = new GeoTweet(line);
         }
         return tweet;
     }
 
+    // read the next tweet from the stream, null at the end.
+    private GeoTweet readTweet() throws IOException {
+        if (binaryReader != null)
+            return binaryReader.hasNext() ? binaryReader.next() : null;
+        return streamReader.nextLine() ? new GeoTweet(streamReader) : null;
+    }
+
 }
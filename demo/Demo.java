@@ -1,12 +1,14 @@
 package demo;
 
 import clustream.Clustream;
+import clustream.Pyramid;
 import eventweet.EvenTweet;
 import geo.GeoTweet;
 import geo.TweetDatabase;
 import hubseek.BatchDetector;
 import hubseek.Detector;
 import hubseek.OnlineDetector;
+import hubseek.StreamingDetector;
 import waveletdetect.WaveletDetect;
 
 import java.util.List;
@@ -42,10 +44,20 @@ public class Demo {
         db = new Database();
         db.loadInitialTweets(tweetFile, numInitTweets);
         db.loadEntityGraph(entityFile, entityEdgeFile);
+        // the binary vicinity file is optional in the config; the vicinity is kept in mongo without it.
+        String vicinityFile = (String) ((Map)((Map)config.get("file")).get("input")).get("vicinity");
         if ((Boolean) ((Map)config.get("clustream")).get("calcVicinity")) {
-            db.getEntityGraph().calcVicinity(epsilon, errorBound, pRestart);
-            mongo.dropVicinity();
-            mongo.writeVicinity(db.getEntityGraph());
+            // the number of threads for computing the vicinity is optional in the config.
+            Integer numThreads = (Integer) ((Map)config.get("clustream")).get("numVicinityThreads");
+            db.getEntityGraph().calcVicinity(epsilon, errorBound, pRestart, numThreads == null ? 1 : numThreads);
+            if (vicinityFile != null) {
+                db.getEntityGraph().writeVicinity(vicinityFile);
+            } else {
+                mongo.dropVicinity();
+                mongo.writeVicinity(db.getEntityGraph());
+            }
+        } else if (vicinityFile != null) {
+            db.getEntityGraph().loadVicinity(vicinityFile);
         } else {
             mongo.loadVicinity(db.getEntityGraph());
         }
@@ -64,7 +76,14 @@ public class Demo {
         int outdatedThreshold = (Integer) ((Map)config.get("clustream")).get("outdatedThreshold");
         // load data
         clustream = new Clustream(numMaxClusters, numTweetPeriod, outdatedThreshold);
-        clustream.init(db.getInitialTweets().getTweets(), numInitClusters);
+        // the directory of the snapshots is optional in the config; the snapshots are kept in memory without it,
+        // and a pyramid stored there before is restored with its reference periods.
+        String pyramidDir = (String) ((Map)config.get("clustream")).get("pyramidDir");
+        if (pyramidDir != null)
+            clustream.setPyramid(new Pyramid(pyramidDir, getNumCachedSnapshots()));
+        // a restored pyramid carries on with its newest clusters.
+        if (pyramidDir == null || !clustream.resume())
+            clustream.init(db.getInitialTweets().getTweets(), numInitClusters);
     }
 
 
@@ -118,7 +137,7 @@ public class Demo {
 
     // evaluate hubseek
     static Detector runHubSeek(Query query, TweetDatabase queryDB) {
-        Detector detector = new BatchDetector(clustream, db.getEntityGraph());
+        Detector detector = newBatchDetector();
         if ((Boolean) ((Map)config.get("hubseek")).get("run")) {
             double bandwidth = ((List<Double>) ((Map)config.get("hubseek")).get("bandwidth")).get(0);
             double epsilon = ((List<Double>) ((Map)config.get("hubseek")).get("epsilon")).get(0);
@@ -132,6 +151,24 @@ public class Demo {
         return detector;
     }
 
+    static Detector newBatchDetector() {
+        Detector detector = new BatchDetector(clustream, db.getEntityGraph());
+        detector.setParallelism(getParallelism());
+        return detector;
+    }
+
+    // number of snapshots of the disk-backed pyramid that are kept in memory, optional in the config.
+    static int getNumCachedSnapshots() {
+        Integer numCachedSnapshots = (Integer) ((Map)config.get("clustream")).get("numCachedSnapshots");
+        return numCachedSnapshots == null ? 32 : numCachedSnapshots;
+    }
+
+    // number of threads for the batch clustering in hubseek, optional in the config.
+    static int getParallelism() {
+        Integer parallelism = (Integer) ((Map)config.get("hubseek")).get("parallelism");
+        return parallelism == null ? 1 : parallelism;
+    }
+
     // evaluate eventweet.
     static EvenTweet runEvenTweet(TweetDatabase queryDB, TweetDatabase refDB) {
         int numGrid = (Integer) ((Map)config.get("eventweet")).get("numGrid");
@@ -166,7 +203,7 @@ public class Demo {
                 double eta = ((List<Double>) ((Map) config.get("hubseek")).get("eta")).get(0);
                 long refTimeSpan = query.getRefEndTS() - query.getRefStartTS();
                 int minSup = query.getMinSup();
-                Detector detector = new BatchDetector(clustream, db.getEntityGraph());
+                Detector detector = newBatchDetector();
                 detector.detect(queryDB, query.getQueryInterval(), bandwidth, epsilon, minSup, refTimeSpan, eta);
                 writeResults(detector, null, null);
             }
@@ -184,7 +221,7 @@ public class Demo {
                 double eta = ((List<Double>) ((Map) config.get("hubseek")).get("eta")).get(0);
                 long refTimeSpan = query.getRefEndTS() - query.getRefStartTS();
                 int minSup = query.getMinSup();
-                Detector detector = new BatchDetector(clustream, db.getEntityGraph());
+                Detector detector = newBatchDetector();
                 detector.detect(queryDB, query.getQueryInterval(), bandwidth, epsilon, minSup, refTimeSpan, eta);
                 writeResults(detector, null, null);
             }
@@ -203,7 +240,7 @@ public class Demo {
                 double eta = etaList.get(i);
                 long refTimeSpan = query.getRefEndTS() - query.getRefStartTS();
                 int minSup = query.getMinSup();
-                Detector detector = new BatchDetector(clustream, db.getEntityGraph());
+                Detector detector = newBatchDetector();
                 detector.detect(queryDB, query.getQueryInterval(), bandwidth, epsilon, minSup, refTimeSpan, eta);
                 writeResults(detector, null, null);
             }
@@ -235,6 +272,7 @@ public class Demo {
             int minSup = query.getMinSup();
             // run online query
             Detector detector = new OnlineDetector(clustream, db.getEntityGraph());
+            detector.setParallelism(getParallelism());
             detector.detect(query.getBatchTD(), query.getQueryInterval(), bandwidth, epsilon, minSup, refTimeSpan, eta);
             detector.update(query.getDeleteTD(), query.getInsertTD(), bandwidth, minSup, refTimeSpan, eta);
             detector.printStats();
@@ -243,12 +281,46 @@ public class Demo {
         System.out.println("running online mode done.");
     }
 
+    /** ---------------------------------- run stream ---------------------------------- **/
+    // the stream mode is enabled by the optional "stream" section in the config.
+    static boolean isStreamMode() {
+        Map streamConfig = (Map) config.get("stream");
+        return streamConfig != null && (Boolean) streamConfig.get("run");
+    }
+
+    // feed the tweets one by one, and write the events every slide interval.
+    static void runStream() throws Exception {
+        int windowSize = (Integer) ((Map)config.get("stream")).get("windowSize");
+        int slideInterval = (Integer) ((Map)config.get("stream")).get("slideInterval");
+        double bandwidth = ((List<Double>) ((Map)config.get("hubseek")).get("bandwidth")).get(0);
+        double epsilon = ((List<Double>) ((Map)config.get("hubseek")).get("epsilon")).get(0);
+        double eta = ((List<Double>) ((Map)config.get("hubseek")).get("eta")).get(0);
+        int refWindowSize = (Integer) ((Map) config.get("query")).get("refWindowSize");
+        int minSup = (Integer) ((Map) config.get("query")).get("minSup");
+        StreamingDetector detector = new StreamingDetector(clustream, db.getEntityGraph(), windowSize, slideInterval,
+                bandwidth, epsilon, minSup, refWindowSize, eta);
+        detector.setParallelism(getParallelism());
+        GeoTweet tweet;
+        while((tweet = db.nextTweet()) != null) {
+            clustream.update(tweet);
+            if (detector.process(tweet)) {
+                detector.printStats();
+                writeResults(detector, null, null);
+            }
+        }
+        System.out.println("running stream mode done. Number of slides:" + detector.getNumSlides());
+    }
+
     /** ---------------------------------- main ---------------------------------- **/
     public static void main(String [] args) throws Exception {
         String paraFile = args.length > 0 ? args[0] : "../run/ny9m.yaml";
         init(paraFile);
-        runBatch();
-        runOnline();
+        if (isStreamMode()) {
+            runStream();
+        } else {
+            runBatch();
+            runOnline();
+        }
     }
 
 }
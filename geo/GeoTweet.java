@@ -1,20 +1,28 @@
 package geo;
 
 import graph.Graph;
+import utils.TsvReader;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Created by chao on 6/20/15.
  */
 public class GeoTweet {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
     long tweetId;
     long userId;
     long timestamp;
     Location loc;
     List<Integer> entityIds;
+    int[] sortedEntityIds; // the entity ids in ascending order, duplicates kept
+    long entityFingerprint; // the hash of the sorted entity ids, equal for the tweets with the same entities
 
     public GeoTweet(long tweetId, long userId, long timestamp, Location loc, List<Integer> entityIds) {
         this.tweetId = tweetId;
@@ -22,21 +30,61 @@ public class GeoTweet {
         this.timestamp = timestamp;
         this.loc = loc;
         this.entityIds = entityIds;
+        initFingerprint();
     }
 
     public GeoTweet(String tweetString) {
-        Scanner sr = new Scanner(tweetString);
-        sr.useDelimiter("\\t");
-        tweetId = sr.nextLong();
-        userId = sr.nextLong();
-        timestamp = sr.nextLong();
-        double lng = sr.nextDouble();
-        double lat = sr.nextDouble();
+        this(lineReader(tweetString));
+    }
+
+    /**
+     * Parse the current line of the reader. Format of each line: tweet ID, user ID, timestamp, lng, lat, entity IDs.
+     */
+    public GeoTweet(TsvReader reader) {
+        tweetId = reader.nextLong();
+        userId = reader.nextLong();
+        timestamp = reader.nextLong();
+        double lng = reader.nextDouble();
+        double lat = reader.nextDouble();
         loc = new Location(lng, lat);
         entityIds = new ArrayList<Integer>();
-        while(sr.hasNextInt()) {
-            entityIds.add(sr.nextInt());
+        while(reader.hasNextInt()) {
+            entityIds.add(reader.nextInt());
+        }
+        initFingerprint();
+    }
+
+    private static TsvReader lineReader(String tweetString) {
+        TsvReader reader = new TsvReader(new ByteArrayInputStream(tweetString.getBytes(UTF8)));
+        try {
+            reader.nextLine();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // not thrown when reading from memory
         }
+        return reader;
+    }
+
+    private void initFingerprint() {
+        sortedEntityIds = new int[entityIds.size()];
+        for (int i = 0; i < sortedEntityIds.length; i++)
+            sortedEntityIds[i] = entityIds.get(i);
+        Arrays.sort(sortedEntityIds);
+        entityFingerprint = calcFingerprint(sortedEntityIds);
+    }
+
+    // the fingerprint of an entity set, given its ids in ascending order.
+    public static long calcFingerprint(int[] sortedEntityIds) {
+        long h = mix(sortedEntityIds.length);
+        for (int entityId : sortedEntityIds)
+            h = mix(h + mix(entityId + 1L));
+        return h;
+    }
+
+    // the splitmix64 finalizer.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
     }
 
     public long getTweetId() {
@@ -95,6 +143,14 @@ public class GeoTweet {
         return entityIds;
     }
 
+    public int[] getSortedEntityIds() {
+        return sortedEntityIds;
+    }
+
+    public long getEntityFingerprint() {
+        return entityFingerprint;
+    }
+
     @Override
     public String toString() {
         return loc.toString() + "," + entityIds;
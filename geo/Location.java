@@ -40,7 +40,7 @@ public class Location implements Serializable {
   }
 
   public RealVector toRealVector() {
-    return new ArrayRealVector(new Double[] {lng, lat} );
+    return new ArrayRealVector(new double[] {lng, lat});
   }
 
   // get the Euclidean distance to another locations, in kilometer
@@ -4,8 +4,11 @@ import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import utils.LongIntMap;
+import utils.RingBuffer;
+import utils.TsvReader;
+
+import java.io.FileInputStream;
 import java.util.*;
 
 /**
@@ -14,10 +17,11 @@ import java.util.*;
  */
 public class TweetDatabase {
 
-    List<GeoTweet> tweets = new ArrayList<GeoTweet>();
+    // the tweets are in the order of timestamp, so the window slides by evicting the head of the ring.
+    RingBuffer<GeoTweet> tweets = new RingBuffer<GeoTweet>();
     long startTimestamp = Long.MAX_VALUE;
     long endTimestamp = Long.MIN_VALUE;
-    List<Long> userIds = new ArrayList<Long>();
+    LongIntMap userCounts = new LongIntMap(); // <user id, number of tweets of the user in the database>
 
     public long getStartTimestamp() {
         return startTimestamp;
@@ -36,15 +40,32 @@ public class TweetDatabase {
         return tweets.get(index);
     }
 
+    // the tweet file is either in the tsv format or the binary format of TweetFile.
     public void load(String tweetFile) throws Exception {
-        BufferedReader br = new BufferedReader( new FileReader(tweetFile) );
-        while(true) {
-            String line = br.readLine();
-            if (line == null) break;
-            GeoTweet gt = new GeoTweet(line);
-            tweets.add(gt);
+        if (TweetFile.isBinary(tweetFile)) {
+            TweetFileReader reader = new TweetFileReader(tweetFile);
+            while (reader.hasNext())
+                append(reader.next());
+            return;
+        }
+        TsvReader reader = new TsvReader(new FileInputStream(tweetFile));
+        while(reader.nextLine()) {
+            GeoTweet gt = new GeoTweet(reader);
+            append(gt);
+        }
+        reader.close();
+    }
+
+    // load the tweets in (startTS, endTS] from a binary tweet file, seeking to the start instead of scanning.
+    public void load(String tweetFile, long startTS, long endTS) throws Exception {
+        TweetFileReader reader = new TweetFileReader(tweetFile);
+        reader.seekTo(startTS + 1);
+        while (reader.hasNext()) {
+            GeoTweet gt = reader.next();
+            if (gt.getTimestamp() > endTS)
+                break;
+            add(gt);
         }
-        br.close();
     }
 
     // delete the first #num tweets in the database
@@ -52,33 +73,25 @@ public class TweetDatabase {
         if (tweets.size() - num <= 0)
             return;
         startTimestamp = tweets.get(num).getTimestamp();
-        List<GeoTweet> updatedTweets = new ArrayList<GeoTweet>();
-        for (int i=num; i<tweets.size(); i++) {
-            updatedTweets.add(tweets.get(i));
-        }
-        tweets = updatedTweets;
+        for (int i=0; i<num; i++)
+            evictHead();
     }
 
     // delete the first #num tweets in the database until the first tweet is newer than startTS.
     public void deleteFromHead(long startTS) {
-        List<GeoTweet> updatedTweets = new ArrayList<GeoTweet>();
-        for (int i=0; i<tweets.size(); i++) {
-            GeoTweet t = tweets.get(i);
-            if (t.getTimestamp() > startTS)
-                updatedTweets.add(t);
-        }
-        tweets = updatedTweets;
+        while (!tweets.isEmpty() && tweets.peekFirst().getTimestamp() <= startTS)
+            evictHead();
     }
 
     // append the new tweets to the end
     public void addAll(TweetDatabase td) {
-        tweets.addAll(td.getTweets());
+        for (GeoTweet tweet : td.getTweets())
+            append(tweet);
         endTimestamp = td.getEndTimestamp();
     }
 
     public void add(GeoTweet tweet) {
-        tweets.add(tweet);
-        userIds.add(tweet.getUserId());
+        append(tweet);
         if (tweet.getTimestamp() < startTimestamp)
             startTimestamp = tweet.getTimestamp();
         if (tweet.getTimestamp() > endTimestamp)
@@ -86,7 +99,24 @@ public class TweetDatabase {
     }
 
     public boolean containUserId(GeoTweet tweet) {
-        return userIds.contains(tweet.getUserId());
+        return userCounts.containsKey(tweet.getUserId());
+    }
+
+    // add the tweet at the tail, and count its user.
+    private void append(GeoTweet tweet) {
+        tweets.add(tweet);
+        long userId = tweet.getUserId();
+        userCounts.put(userId, userCounts.get(userId, 0) + 1);
+    }
+
+    // remove the tweet at the head; its user is removed with the last tweet of the user.
+    private void evictHead() {
+        long userId = tweets.removeFirst().getUserId();
+        int count = userCounts.get(userId, 0);
+        if (count <= 1)
+            userCounts.remove(userId);
+        else
+            userCounts.put(userId, count - 1);
     }
 
     public Map<Long, GeoTweet> getGeoTweetsMap() {
@@ -0,0 +1,232 @@
+package geo;
+
+import utils.TsvReader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary columnar file of a tweet stream, which is read by TweetFileReader with a memory mapping.
+ *
+ * Layout (big-endian):
+ * header: int magic, int version, int numTweets, int sorted (1 if the timestamps are ascending),
+ *         int indexStride, int numIndexEntries, long[numIndexEntries] time index (the timestamp of
+ *         every indexStride-th tweet);
+ * columns: long[numTweets] tweet ids, long[numTweets] user ids, long[numTweets] timestamps,
+ *          double[numTweets] lngs, double[numTweets] lats, long[numTweets + 1] entity offsets;
+ * entities: for each tweet, the number of entities and the entity ids as zigzag varints, starting at its offset.
+ *
+ * Usage of the converter: java geo.TweetFile tsvFile binaryFile
+ */
+public class TweetFile {
+
+    static final int MAGIC = 0x47545746; // "GTWF"
+    static final int VERSION = 1;
+    static final int FIXED_HEADER_SIZE = 24;
+    static final int INDEX_STRIDE = 1024;
+    static final int NUM_LONG_COLUMNS = 5; // tweet id, user id, timestamp, lng, lat; all 8 bytes wide
+
+    public static void main(String[] args) throws Exception {
+        long start = System.currentTimeMillis();
+        int numTweets = convert(args[0], args[1]);
+        long end = System.currentTimeMillis();
+        System.out.println("Converted " + numTweets + " tweets in " + (end - start) / 1000.0 + " seconds.");
+    }
+
+    // whether the file starts with the magic number of the binary format.
+    public static boolean isBinary(String file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    // convert a tsv tweet file into the binary format, return the number of tweets.
+    public static int convert(String tsvFile, String binaryFile) throws IOException {
+        // the first pass counts the tweets, so that the column positions are known before writing.
+        int numTweets = 0;
+        TsvReader reader = new TsvReader(new FileInputStream(tsvFile));
+        while (reader.nextLine()) {
+            if (!reader.isEmptyLine())
+                numTweets++;
+        }
+        reader.close();
+        reader = new TsvReader(new FileInputStream(tsvFile));
+        Writer writer = new Writer(binaryFile, numTweets);
+        try {
+            while (reader.nextLine()) {
+                if (!reader.isEmptyLine())
+                    writer.write(new GeoTweet(reader));
+            }
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        return numTweets;
+    }
+
+    // write the tweets into the binary format.
+    public static void write(List<GeoTweet> tweets, String binaryFile) throws IOException {
+        Writer writer = new Writer(binaryFile, tweets.size());
+        try {
+            for (GeoTweet tweet : tweets)
+                writer.write(tweet);
+        } finally {
+            writer.close();
+        }
+    }
+
+    static int numIndexEntries(int numTweets) {
+        return (numTweets + INDEX_STRIDE - 1) / INDEX_STRIDE;
+    }
+
+    static long headerSize(int numTweets) {
+        return FIXED_HEADER_SIZE + 8L * numIndexEntries(numTweets);
+    }
+
+    // the start of the entity offset column; the fixed-width columns come before it.
+    static long entityOffsetsStart(int numTweets) {
+        return headerSize(numTweets) + 8L * NUM_LONG_COLUMNS * numTweets;
+    }
+
+    static long entitiesStart(int numTweets) {
+        return entityOffsetsStart(numTweets) + 8L * (numTweets + 1);
+    }
+
+    /**
+     * Writes the tweets one by one. The number of tweets is fixed in advance, so every column has a known
+     * position and is written through its own buffer.
+     */
+    static class Writer {
+
+        RandomAccessFile raf;
+        FileChannel channel;
+        int numTweets;
+        int numWritten = 0;
+        ColumnBuffer[] columns = new ColumnBuffer[NUM_LONG_COLUMNS];
+        ColumnBuffer entityOffsets;
+        ColumnBuffer entities;
+        long entityBytes = 0; // number of bytes written into the entities section
+        boolean sorted = true;
+        long lastTimestamp = Long.MIN_VALUE;
+        List<Long> timeIndex = new ArrayList<Long>();
+
+        Writer(String file, int numTweets) throws IOException {
+            this.raf = new RandomAccessFile(file, "rw");
+            this.raf.setLength(0);
+            this.channel = raf.getChannel();
+            this.numTweets = numTweets;
+            long pos = headerSize(numTweets);
+            for (int c = 0; c < NUM_LONG_COLUMNS; c++) {
+                columns[c] = new ColumnBuffer(channel, pos);
+                pos += 8L * numTweets;
+            }
+            entityOffsets = new ColumnBuffer(channel, entityOffsetsStart(numTweets));
+            entities = new ColumnBuffer(channel, entitiesStart(numTweets));
+        }
+
+        void write(GeoTweet tweet) throws IOException {
+            if (numWritten == numTweets)
+                throw new IOException("More tweets than declared: " + numTweets);
+            long ts = tweet.getTimestamp();
+            if (ts < lastTimestamp)
+                sorted = false;
+            lastTimestamp = ts;
+            if (numWritten % INDEX_STRIDE == 0)
+                timeIndex.add(ts);
+            columns[0].putLong(tweet.getTweetId());
+            columns[1].putLong(tweet.getUserId());
+            columns[2].putLong(ts);
+            columns[3].putDouble(tweet.getLocation().getLng());
+            columns[4].putDouble(tweet.getLocation().getLat());
+            entityOffsets.putLong(entityBytes);
+            List<Integer> entityIds = tweet.getEntityIds();
+            entityBytes += entities.putVarint(entityIds.size());
+            for (int entityId : entityIds)
+                entityBytes += entities.putVarint(entityId);
+            numWritten++;
+        }
+
+        void close() throws IOException {
+            try {
+                if (numWritten != numTweets)
+                    throw new IOException("Declared " + numTweets + " tweets, but wrote " + numWritten);
+                entityOffsets.putLong(entityBytes);
+                for (ColumnBuffer column : columns)
+                    column.flush();
+                entityOffsets.flush();
+                entities.flush();
+                ByteBuffer header = ByteBuffer.allocate((int) headerSize(numTweets));
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(numTweets);
+                header.putInt(sorted ? 1 : 0);
+                header.putInt(INDEX_STRIDE);
+                header.putInt(timeIndex.size());
+                for (long ts : timeIndex)
+                    header.putLong(ts);
+                header.flip();
+                channel.write(header, 0);
+                if (!sorted)
+                    System.out.println("Warning: the tweets are not in the order of timestamp, seeking is disabled.");
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    // a write buffer for one column, flushed at the next position of the column.
+    static class ColumnBuffer {
+
+        FileChannel channel;
+        long position;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+        ColumnBuffer(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8)
+                flush();
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            if (buffer.remaining() < 8)
+                flush();
+            buffer.putDouble(value);
+        }
+
+        // write the value as a zigzag varint, return the number of bytes.
+        int putVarint(int value) throws IOException {
+            if (buffer.remaining() < 5)
+                flush();
+            int v = (value << 1) ^ (value >> 31);
+            int numBytes = 1;
+            while ((v & ~0x7f) != 0) {
+                buffer.put((byte) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+                numBytes++;
+            }
+            buffer.put((byte) v);
+            return numBytes;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+            buffer.clear();
+        }
+    }
+
+}
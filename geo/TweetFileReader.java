@@ -0,0 +1,201 @@
+package geo;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a binary tweet file written by TweetFile with a memory mapping. The columns are accessed by the index
+ * of the tweet, so a tweet can be read as a flyweight view through the getters without creating a GeoTweet,
+ * and the first tweet at a timestamp is found by a binary search on the time index and the timestamp column.
+ */
+public class TweetFileReader {
+
+    // the columns and the entities are split into chunks, since one buffer can hold at most 2^31 bytes.
+    static final int CHUNK_BITS = 27; // number of 8-byte values in a column chunk
+    static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    static final int ENTITY_CHUNK_BITS = 30; // number of bytes in an entity chunk
+    static final int ENTITY_CHUNK_MASK = (1 << ENTITY_CHUNK_BITS) - 1;
+
+    int numTweets;
+    boolean sorted;
+    long[] timeIndex; // the timestamp of every indexStride-th tweet
+    int indexStride;
+    LongBuffer[] tweetIds;
+    LongBuffer[] userIds;
+    LongBuffer[] timestamps;
+    DoubleBuffer[] lngs;
+    DoubleBuffer[] lats;
+    LongBuffer[] entityOffsets;
+    ByteBuffer[] entities;
+    int next = 0; // the index of the next tweet for the sequential reading
+
+    public TweetFileReader(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TweetFile.FIXED_HEADER_SIZE);
+            if (header.getInt(0) != TweetFile.MAGIC)
+                throw new IOException("Not a binary tweet file: " + file);
+            if (header.getInt(4) != TweetFile.VERSION)
+                throw new IOException("Unsupported version " + header.getInt(4) + " of the tweet file: " + file);
+            numTweets = header.getInt(8);
+            sorted = header.getInt(12) == 1;
+            indexStride = header.getInt(16);
+            timeIndex = new long[header.getInt(20)];
+            channel.map(FileChannel.MapMode.READ_ONLY, TweetFile.FIXED_HEADER_SIZE, 8L * timeIndex.length)
+                    .asLongBuffer().get(timeIndex);
+            long pos = TweetFile.headerSize(numTweets);
+            long columnSize = 8L * numTweets;
+            tweetIds = mapLongs(channel, pos, numTweets);
+            userIds = mapLongs(channel, pos += columnSize, numTweets);
+            timestamps = mapLongs(channel, pos += columnSize, numTweets);
+            lngs = mapDoubles(channel, pos += columnSize, numTweets);
+            lats = mapDoubles(channel, pos += columnSize, numTweets);
+            entityOffsets = mapLongs(channel, pos += columnSize, numTweets + 1L);
+            long entitiesStart = TweetFile.entitiesStart(numTweets);
+            long entitiesSize = getLong(entityOffsets, numTweets);
+            entities = new ByteBuffer[(int) ((entitiesSize + ENTITY_CHUNK_MASK) >>> ENTITY_CHUNK_BITS)];
+            for (int c = 0; c < entities.length; c++) {
+                long start = (long) c << ENTITY_CHUNK_BITS;
+                long chunkSize = Math.min(1L << ENTITY_CHUNK_BITS, entitiesSize - start);
+                entities[c] = channel.map(FileChannel.MapMode.READ_ONLY, entitiesStart + start, chunkSize);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    public int size() {
+        return numTweets;
+    }
+
+    public long getTweetId(int index) {
+        return getLong(tweetIds, index);
+    }
+
+    public long getUserId(int index) {
+        return getLong(userIds, index);
+    }
+
+    public long getTimestamp(int index) {
+        return getLong(timestamps, index);
+    }
+
+    public double getLng(int index) {
+        return lngs[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+    public double getLat(int index) {
+        return lats[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+    public int numEntity(int index) {
+        return getEntityIds(index).length;
+    }
+
+    // the entities of a tweet are its number of entities followed by the entity ids, all zigzag varints.
+    public int[] getEntityIds(int index) {
+        long pos = getLong(entityOffsets, index);
+        int[] results = null;
+        int k = 0;
+        while (results == null || k < results.length) {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = entities[(int) (pos >>> ENTITY_CHUNK_BITS)].get((int) (pos & ENTITY_CHUNK_MASK));
+                pos++;
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            v = (v >>> 1) ^ -(v & 1);
+            if (results == null)
+                results = new int[v];
+            else
+                results[k++] = v;
+        }
+        return results;
+    }
+
+    public GeoTweet getTweet(int index) {
+        int[] ids = getEntityIds(index);
+        List<Integer> entityIds = new ArrayList<Integer>(ids.length);
+        for (int id : ids)
+            entityIds.add(id);
+        return new GeoTweet(getTweetId(index), getUserId(index), getTimestamp(index),
+                new Location(getLng(index), getLat(index)), entityIds);
+    }
+
+    // the index of the first tweet whose timestamp is no smaller than ts; size() if there is none.
+    public int seek(long ts) {
+        if (!sorted)
+            throw new IllegalStateException("The tweets are not in the order of timestamp.");
+        // find the block by the time index, then the tweet in the block by the timestamp column.
+        int low = 0, high = timeIndex.length - 1;
+        int block = 0; // the last block that starts before ts
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timeIndex[mid] < ts) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        low = block * indexStride;
+        high = Math.min(numTweets, low + indexStride);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < ts)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // move the sequential reading to the first tweet at or after ts.
+    public void seekTo(long ts) {
+        next = seek(ts);
+    }
+
+    public boolean hasNext() {
+        return next < numTweets;
+    }
+
+    public GeoTweet next() {
+        return getTweet(next++);
+    }
+
+    // map a column of count 8-byte values starting at pos, in chunks of 2^CHUNK_BITS values.
+    private static LongBuffer[] mapLongs(FileChannel channel, long pos, long count) throws IOException {
+        LongBuffer[] chunks = new LongBuffer[(int) ((count + CHUNK_MASK) >>> CHUNK_BITS)];
+        for (int c = 0; c < chunks.length; c++) {
+            long chunkSize = Math.min(1L << CHUNK_BITS, count - ((long) c << CHUNK_BITS));
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, pos + ((long) c << (CHUNK_BITS + 3)),
+                    8L * chunkSize).asLongBuffer();
+        }
+        return chunks;
+    }
+
+    private static DoubleBuffer[] mapDoubles(FileChannel channel, long pos, long count) throws IOException {
+        DoubleBuffer[] chunks = new DoubleBuffer[(int) ((count + CHUNK_MASK) >>> CHUNK_BITS)];
+        for (int c = 0; c < chunks.length; c++) {
+            long chunkSize = Math.min(1L << CHUNK_BITS, count - ((long) c << CHUNK_BITS));
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, pos + ((long) c << (CHUNK_BITS + 3)),
+                    8L * chunkSize).asDoubleBuffer();
+        }
+        return chunks;
+    }
+
+    private static long getLong(LongBuffer[] chunks, int index) {
+        return chunks[index >>> CHUNK_BITS].get(index & CHUNK_MASK);
+    }
+
+}
@@ -0,0 +1,216 @@
+package geo;
+
+import utils.TsvReader;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A struct-of-arrays store of tweets. The fields are kept in parallel primitive columns, and the entity ids of
+ * all the tweets in one int pool, where the entities of tweet i are entityPool[entityOffsets[i], entityOffsets[i+1]).
+ * A tweet is referred to by its index and read through the getters, so no GeoTweet, Location or boxed entity
+ * list is kept per tweet; getTweet materializes one when it is needed.
+ */
+public class TweetStore {
+
+    int size = 0;
+    long[] tweetIds;
+    long[] userIds;
+    long[] timestamps;
+    double[] lngs;
+    double[] lats;
+    int[] entityOffsets; // size + 1 entries
+    int[] entityPool;
+    boolean sorted = true; // whether the timestamps are ascending, required by seek
+
+    public TweetStore() {
+        this(16);
+    }
+
+    public TweetStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        tweetIds = new long[capacity];
+        userIds = new long[capacity];
+        timestamps = new long[capacity];
+        lngs = new double[capacity];
+        lats = new double[capacity];
+        entityOffsets = new int[capacity + 1];
+        entityPool = new int[capacity * 4];
+    }
+
+    // load a tweet file in the tsv or the binary format.
+    public static TweetStore load(String file) throws IOException {
+        if (TweetFile.isBinary(file)) {
+            TweetFileReader reader = new TweetFileReader(file);
+            TweetStore store = new TweetStore(reader.size());
+            for (int i = 0; i < reader.size(); i++) {
+                int[] entityIds = reader.getEntityIds(i);
+                store.add(reader.getTweetId(i), reader.getUserId(i), reader.getTimestamp(i), reader.getLng(i),
+                        reader.getLat(i), entityIds, 0, entityIds.length);
+            }
+            return store;
+        }
+        TweetStore store = new TweetStore();
+        TsvReader reader = new TsvReader(new FileInputStream(file));
+        try {
+            while (reader.nextLine()) {
+                if (!reader.isEmptyLine())
+                    store.add(reader);
+            }
+        } finally {
+            reader.close();
+        }
+        return store;
+    }
+
+    // add the tweet with the entities in entityIds[from, to), return its index.
+    public int add(long tweetId, long userId, long timestamp, double lng, double lat, int[] entityIds, int from, int to) {
+        int index = addFields(tweetId, userId, timestamp, lng, lat);
+        for (int i = from; i < to; i++)
+            addEntity(entityIds[i]);
+        return index;
+    }
+
+    public int add(GeoTweet tweet) {
+        int index = addFields(tweet.getTweetId(), tweet.getUserId(), tweet.getTimestamp(),
+                tweet.getLocation().getLng(), tweet.getLocation().getLat());
+        for (int entityId : tweet.getEntityIds())
+            addEntity(entityId);
+        return index;
+    }
+
+    // parse the current line of the reader, in the format of GeoTweet(TsvReader).
+    public int add(TsvReader reader) {
+        long tweetId = reader.nextLong();
+        long userId = reader.nextLong();
+        long timestamp = reader.nextLong();
+        double lng = reader.nextDouble();
+        double lat = reader.nextDouble();
+        int index = addFields(tweetId, userId, timestamp, lng, lat);
+        while (reader.hasNextInt())
+            addEntity(reader.nextInt());
+        return index;
+    }
+
+    private int addFields(long tweetId, long userId, long timestamp, double lng, double lat) {
+        if (size == tweetIds.length)
+            grow(size * 2);
+        if (size > 0 && timestamp < timestamps[size - 1])
+            sorted = false;
+        tweetIds[size] = tweetId;
+        userIds[size] = userId;
+        timestamps[size] = timestamp;
+        lngs[size] = lng;
+        lats[size] = lat;
+        size++;
+        entityOffsets[size] = entityOffsets[size - 1];
+        return size - 1;
+    }
+
+    // append an entity to the last tweet.
+    private void addEntity(int entityId) {
+        int end = entityOffsets[size];
+        if (end == entityPool.length)
+            entityPool = Arrays.copyOf(entityPool, entityPool.length * 2);
+        entityPool[end] = entityId;
+        entityOffsets[size] = end + 1;
+    }
+
+    private void grow(int capacity) {
+        tweetIds = Arrays.copyOf(tweetIds, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        lngs = Arrays.copyOf(lngs, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        entityOffsets = Arrays.copyOf(entityOffsets, capacity + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTweetId(int index) {
+        return tweetIds[index];
+    }
+
+    public long getUserId(int index) {
+        return userIds[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getLng(int index) {
+        return lngs[index];
+    }
+
+    public double getLat(int index) {
+        return lats[index];
+    }
+
+    // the pool of the entity ids; the entities of a tweet are in [getEntityStart, getEntityEnd), and the
+    // entities of the tweets in [from, to) are in [getEntityStart(from), getEntityStart(to)).
+    public int[] getEntityPool() {
+        return entityPool;
+    }
+
+    public int getEntityStart(int index) {
+        return entityOffsets[index];
+    }
+
+    public int getEntityEnd(int index) {
+        return entityOffsets[index + 1];
+    }
+
+    public int numEntity(int index) {
+        return entityOffsets[index + 1] - entityOffsets[index];
+    }
+
+    // a copy of the entity ids of the tweet, in the original order.
+    public int[] getEntityIds(int index) {
+        return Arrays.copyOfRange(entityPool, entityOffsets[index], entityOffsets[index + 1]);
+    }
+
+    // the entity ids in ascending order, as GeoTweet.getSortedEntityIds.
+    public int[] getSortedEntityIds(int index) {
+        int[] entityIds = getEntityIds(index);
+        Arrays.sort(entityIds);
+        return entityIds;
+    }
+
+    public GeoTweet getTweet(int index) {
+        List<Integer> entityIds = new ArrayList<Integer>(numEntity(index));
+        for (int i = entityOffsets[index]; i < entityOffsets[index + 1]; i++)
+            entityIds.add(entityPool[i]);
+        return new GeoTweet(tweetIds[index], userIds[index], timestamps[index],
+                new Location(lngs[index], lats[index]), entityIds);
+    }
+
+    // materialize the tweets in [from, to).
+    public List<GeoTweet> getTweets(int from, int to) {
+        List<GeoTweet> results = new ArrayList<GeoTweet>(to - from);
+        for (int i = from; i < to; i++)
+            results.add(getTweet(i));
+        return results;
+    }
+
+    // the index of the first tweet whose timestamp is no smaller than ts; size() if there is none.
+    public int seek(long ts) {
+        if (!sorted)
+            throw new IllegalStateException("The tweets are not in the order of timestamp.");
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < ts)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+}
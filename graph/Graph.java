@@ -1,23 +1,38 @@
 package graph;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import utils.TsvReader;
+
+import java.io.File;
+import java.io.FileInputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Graph {
 
     public List<Node> mNodes = new ArrayList<Node>();
     public List<Edge> mEdges = new ArrayList<Edge>();
-    // keep the vicinity for each node.
-	public Map<Integer, Map<Integer, Double>> vicinity = new HashMap<Integer, Map<Integer, Double>>();
+    // keep the vicinity for each node, either in memory or mapped from a binary file.
+	VicinityStore vicinity = null;
+    // the transpose of the vicinity: for each node, the sorted nodes whose vicinity contains it. It is set together
+    // with the vicinity, so the readers need no locking.
+	VicinityStore reverseVicinity = null;
     public List< Set<Integer> > mOutEdges = new ArrayList< Set<Integer> >(); // the outgoing edges of nodes
     public List< Set<Integer> > mInEdges = new ArrayList< Set<Integer> >(); // the incoming edges of nodes
 
-    // the row-normalized transition matrix
-    ArrayList< ArrayList<NodeTransition> > mTransition = new ArrayList< ArrayList<NodeTransition>> ();
-    
-    // the transpose of the row-normalized transition matrix
-    ArrayList< ArrayList<NodeTransition> > mTransitionTranspose = new ArrayList< ArrayList<NodeTransition>> ();
+    // the row-normalized transition matrix, in the compressed sparse row format:
+    // the transitions of node i are at [mOutOffsets[i], mOutOffsets[i+1]) of mOutTargets and mOutProbs.
+    int[] mOutOffsets;
+    int[] mOutTargets;
+    double[] mOutProbs;
+
+    // the transpose of the row-normalized transition matrix, in the same format:
+    // the nodes that can walk to node i are at [mInOffsets[i], mInOffsets[i+1]) of mInSources and mInProbs.
+    int[] mInOffsets;
+    int[] mInSources;
+    double[] mInProbs;
 
     // stats
     double timeCalcVicinity; // time for computing vicinity.
@@ -26,21 +41,16 @@ public class Graph {
      * Format of each line: node ID, weight, node description
      */
     public void loadNodes(String nodeFile) throws Exception {
-    	BufferedReader br = new BufferedReader( new FileReader(nodeFile) );
-        while(true)  {
-            String line = br.readLine();
-            if(line == null)
-            	break;
-            Scanner sr = new Scanner(line);
-            if(!sr.hasNextLine())
+    	TsvReader reader = new TsvReader( new FileInputStream(nodeFile) );
+        while(reader.nextLine())  {
+            if(reader.isEmptyLine())
             	break;
-            sr.useDelimiter("\\t");
-            int id = sr.nextInt(); // node id
+            int id = reader.nextInt(); // node id
             double weight = 1.0;
-            String description = sr.next(); // description
+            String description = reader.next(); // description
             mNodes.add( new Node(id, weight, description) );
         }
-        br.close();
+        reader.close();
         System.out.println("Loading graph nodes completed. Number of nodes:" + getNodeCnt() );
         // initialize empty neighbor sets for each node
         for (int i = 0; i < getNodeCnt(); i++) {
@@ -53,18 +63,13 @@ public class Graph {
     }
 	
     public void loadEdges(String edgeFile, boolean directed) throws Exception {
-		BufferedReader br = new BufferedReader( new FileReader(edgeFile) );
-        while(true)  {
-            String line = br.readLine();
-            if(line == null)
+		TsvReader reader = new TsvReader( new FileInputStream(edgeFile) );
+        while(reader.nextLine())  {
+            if(reader.isEmptyLine())
             	break;
-            Scanner sr = new Scanner(line);
-            if(!sr.hasNextLine())
-            	break;
-            sr.useDelimiter("\\t");
-            int fromId = sr.nextInt();
-            int toId = sr.nextInt();
-            int weight = sr.hasNextInt() ? sr.nextInt() : 1;
+            int fromId = reader.nextInt();
+            int toId = reader.nextInt();
+            int weight = reader.hasNextInt() ? reader.nextInt() : 1;
             Edge edge = new Edge(fromId, toId, weight);
             addEdge( edge );
             // for undirected graph
@@ -73,7 +78,7 @@ public class Graph {
             	addEdge(reverseEdge);
             }
         }
-        br.close();
+        reader.close();
         System.out.println("Loading edges completed. Number of edges:" + getEdgeCnt() );
         constructTransitionMatrix();
         constructTransitionTransposeMatrix();
@@ -152,39 +157,79 @@ public class Graph {
 		return inNeighbors;
 	}
 	
+	// the primitive accessors of the transition matrices, used by the rwr searchers.
+	public int[] getOutOffsets() {
+		return mOutOffsets;
+	}
+
+	public int[] getOutTargets() {
+		return mOutTargets;
+	}
+
+	public double[] getOutProbs() {
+		return mOutProbs;
+	}
+
+	public int[] getInOffsets() {
+		return mInOffsets;
+	}
+
+	public int[] getInSources() {
+		return mInSources;
+	}
+
+	public double[] getInProbs() {
+		return mInProbs;
+	}
+
+	// the object views of the transitions, built on the fly from the compressed rows.
 	public List<NodeTransition> getOutgoingTransitions(int nodeId) {
-		return mTransition.get( nodeId );
+		List<NodeTransition> transitionList = new ArrayList<NodeTransition>();
+		for (int k = mOutOffsets[nodeId]; k < mOutOffsets[nodeId + 1]; k++)
+			transitionList.add( new NodeTransition(mOutTargets[k], mOutProbs[k]) );
+		return transitionList;
 	}
 	
 	public List<NodeTransition> getIncomingTransitions(int nodeId) {
-		return mTransitionTranspose.get( nodeId );
+		List<NodeTransition> transitionList = new ArrayList<NodeTransition>();
+		for (int k = mInOffsets[nodeId]; k < mInOffsets[nodeId + 1]; k++)
+			transitionList.add( new NodeTransition(mInSources[k], mInProbs[k]) );
+		return transitionList;
 	}
 	
 
 	// construct the row-normalized transition matrix
 	private void constructTransitionMatrix() {
+		int nodeCnt = getNodeCnt();
+		mOutOffsets = new int[nodeCnt + 1];
+		for (int i = 0; i < nodeCnt; i++)
+			mOutOffsets[i + 1] = mOutOffsets[i] + getOutEdges(i).size();
+		mOutTargets = new int[mOutOffsets[nodeCnt]];
+		mOutProbs = new double[mOutOffsets[nodeCnt]];
 		for(Node node: mNodes) {
 			int nodeId = node.getId();
 			int outDegree = node.getOutDegree();
-			ArrayList<NodeTransition> transitionList = new ArrayList<NodeTransition>();
-			
+			int k = mOutOffsets[nodeId];
 			Set<Integer> outEdges = getOutEdges(nodeId);
 			for(Integer edgeId: outEdges) {
-				int toId = getEdge(edgeId).getToId();
-				double pTransition = (double) getEdge(edgeId).getWeight() / (double) outDegree;
-				transitionList.add( new NodeTransition(toId, pTransition) );
+				mOutTargets[k] = getEdge(edgeId).getToId();
+				mOutProbs[k] = (double) getEdge(edgeId).getWeight() / (double) outDegree;
+				k ++;
 			}
-			mTransition.add( transitionList );
 		}
 	}
 	
 	// construct the transpose of the row-normalized transition matrix
 	// it answers: given a node, which other node can directly walk to it, and with what probabilities?
 	private void constructTransitionTransposeMatrix() {
-		for(int i=0; i<getNodeCnt(); i++) {
-			ArrayList<NodeTransition> transitionList = new ArrayList<NodeTransition>();
-			mTransitionTranspose.add( transitionList );
-		}
+		int nodeCnt = getNodeCnt();
+		mInOffsets = new int[nodeCnt + 1];
+		for (int i = 0; i < nodeCnt; i++)
+			mInOffsets[i + 1] = mInOffsets[i] + getInEdges(i).size();
+		mInSources = new int[mInOffsets[nodeCnt]];
+		mInProbs = new double[mInOffsets[nodeCnt]];
+		// the next free position in each row
+		int[] next = Arrays.copyOf(mInOffsets, nodeCnt);
 		for(Node node: mNodes) {
 			int fromId = node.getId();
 			int outDegree = node.getOutDegree();
@@ -192,10 +237,9 @@ public class Graph {
 			Set<Integer> outEdges = getOutEdges(fromId);
 			for(Integer edgeId: outEdges) {
 				int toId = getEdge(edgeId).getToId();
-				double pTransition = (double) getEdge(edgeId).getWeight() / (double) outDegree;
-				
-				ArrayList<NodeTransition> transitionList = mTransitionTranspose.get(toId);
-				transitionList.add( new NodeTransition(fromId, pTransition) );
+				int k = next[toId] ++;
+				mInSources[k] = fromId;
+				mInProbs[k] = (double) getEdge(edgeId).getWeight() / (double) outDegree;
 			}
 		}
 	}
@@ -209,34 +253,142 @@ public class Graph {
 //        Ripple searcher = new Ripple(this);
 		int cnt = 0;
         long start = System.currentTimeMillis();
+		Map<Integer, Map<Integer, Double>> results = new HashMap<Integer, Map<Integer, Double>>();
 		for (Node n : mNodes) {
 			Map<Integer, Double> neighbors = searcher.search(n.getId(), epsilon, c, errorBound);
-			vicinity.put(n.getId(), neighbors);
+			results.put(n.getId(), neighbors);
 			cnt ++;
 			if (cnt % 100 == 0) {
                 System.out.println("Finished computing vicinity for " + cnt + " nodes.");
 //                break;
             }
 		}
+		setVicinity(results);
         long end = System.currentTimeMillis();
         timeCalcVicinity = (end - start) / 1000.0;
 	}
 
 
+	// compute the rwr scores for all the nodes with multiple threads. Each thread has its own searcher,
+	// and takes the next unprocessed node when it finishes one, so the load is balanced among the threads.
+	public void calcVicinity(final double epsilon, final double errorBound, final double c, int numThreads) {
+		if (numThreads <= 1) {
+			calcVicinity(epsilon, errorBound, c);
+			return;
+		}
+		long start = System.currentTimeMillis();
+		final int nodeCnt = getNodeCnt();
+		final List<Map<Integer, Double>> results = new ArrayList<Map<Integer, Double>>(Collections.<Map<Integer, Double>>nCopies(nodeCnt, null));
+		final AtomicInteger nextNode = new AtomicInteger(0);
+		final AtomicInteger cnt = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < numThreads; t++) {
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					Propagator searcher = new Propagator(Graph.this);
+					int index;
+					while ((index = nextNode.getAndIncrement()) < nodeCnt) {
+						int nodeId = mNodes.get(index).getId();
+						Map<Integer, Double> neighbors = searcher.search(nodeId, epsilon, c, errorBound);
+						// each index is written by one thread only
+						results.set(index, neighbors);
+						int finished = cnt.incrementAndGet();
+						if (finished % 100 == 0)
+							System.out.println("Finished computing vicinity for " + finished + " nodes.");
+					}
+				}
+			}));
+		}
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (Exception e) {
+			throw new RuntimeException("Computing vicinity failed.", e);
+		} finally {
+			executor.shutdown();
+		}
+		// merge the results into the vicinity
+		Map<Integer, Map<Integer, Double>> vicinity = new HashMap<Integer, Map<Integer, Double>>();
+		for (int i = 0; i < nodeCnt; i++)
+			vicinity.put(mNodes.get(i).getId(), results.get(i));
+		setVicinity(vicinity);
+		long end = System.currentTimeMillis();
+		timeCalcVicinity = (end - start) / 1000.0;
+	}
+
+
 	public double getRWR(int fromId, int toId) {
-		Map<Integer, Double> neighbors = vicinity.get(toId);
-		if (neighbors.containsKey(fromId))
-			return neighbors.get(fromId);
-		else
-			return 0;
+		return vicinity.getRWR(fromId, toId);
 	}
 
 	public Map<Integer, Double> getVicinity(int nodeId) {
-		return vicinity.get(nodeId);
+		return vicinity.getVicinity(nodeId);
+	}
+
+	// whether fromId reaches toId with nonzero rwr, namely whether fromId is in the vicinity of toId.
+	public boolean canReach(int fromId, int toId) {
+		return vicinity.contains(toId, fromId);
+	}
+
+	// the sorted nodes that reach toId with nonzero rwr are at [getReachingStart(toId), getReachingEnd(toId))
+	// of getReachingNode(pos).
+	public long getReachingStart(int toId) {
+		return vicinity.getStart(toId);
+	}
+
+	public long getReachingEnd(int toId) {
+		return vicinity.getEnd(toId);
+	}
+
+	public int getReachingNode(long pos) {
+		return vicinity.getId(pos);
+	}
+
+	// the sorted nodes that fromId reaches with nonzero rwr are at [getReachedStart(fromId), getReachedEnd(fromId))
+	// of getReachedNode(pos).
+	public long getReachedStart(int fromId) {
+		return reverseVicinity.getStart(fromId);
+	}
+
+	public long getReachedEnd(int fromId) {
+		return reverseVicinity.getEnd(fromId);
+	}
+
+	public int getReachedNode(long pos) {
+		return reverseVicinity.getId(pos);
 	}
 
     public void setVicinity(Map<Integer, Map<Integer, Double>> vicinity) {
+        setVicinity(VicinityStore.build(getNodeCnt(), vicinity));
+    }
+
+    public void setVicinity(VicinityStore vicinity) {
+        setVicinity(vicinity, vicinity.transpose());
+    }
+
+    private void setVicinity(VicinityStore vicinity, VicinityStore reverseVicinity) {
         this.vicinity = vicinity;
+        this.reverseVicinity = reverseVicinity;
+    }
+
+    // write the vicinity to a binary file, and its transpose to the file with the suffix ".reverse",
+    // both of which can be memory-mapped by loadVicinity.
+    public void writeVicinity(String vicinityFile) throws Exception {
+        vicinity.write(vicinityFile);
+        reverseVicinity.write(vicinityFile + ".reverse");
+    }
+
+    public void loadVicinity(String vicinityFile) throws Exception {
+        VicinityStore store = VicinityStore.load(vicinityFile);
+        File reverseFile = new File(vicinityFile + ".reverse");
+        if (reverseFile.exists()) {
+            setVicinity(store, VicinityStore.load(reverseFile.getPath()));
+        } else {
+            System.out.println("No reverse vicinity file, building it in memory: " + reverseFile);
+            setVicinity(store);
+        }
+        System.out.println("Loading vicinity completed. Number of entries:" + vicinity.numEntries());
     }
 
 	public int numNode() {
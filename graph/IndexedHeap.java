@@ -0,0 +1,108 @@
+package graph;
+
+import java.util.Arrays;
+
+/**
+ * A binary max-heap of node ids, ordered by the scores in an external array. It keeps the position
+ * of every node in the heap, so a node whose score has increased is moved up in O(log n) instead of
+ * being removed and offered again.
+ */
+public class IndexedHeap {
+
+    int[] heap; // the node ids in the heap order
+    int[] pos; // the position of each node in the heap, -1 if the node is not in the heap
+    int size = 0;
+    double[] scores; // the keys of the nodes, owned by the caller
+
+    public IndexedHeap(int numNodes, double[] scores) {
+        this.heap = new int[Math.max(1, numNodes)];
+        this.pos = new int[numNodes];
+        Arrays.fill(pos, -1);
+        this.scores = scores;
+    }
+
+    public void setScores(double[] scores) {
+        this.scores = scores;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int nodeId) {
+        return pos[nodeId] >= 0;
+    }
+
+    // the node with the max score.
+    public int peek() {
+        return heap[0];
+    }
+
+    // insert the node, or restore its position if it is in the heap and its score has increased.
+    public void offer(int nodeId) {
+        if (pos[nodeId] < 0) {
+            heap[size] = nodeId;
+            pos[nodeId] = size;
+            size++;
+        }
+        siftUp(pos[nodeId]);
+    }
+
+    public int poll() {
+        int top = heap[0];
+        pos[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    // remove all the nodes, only resetting the positions of the nodes in the heap.
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            pos[heap[i]] = -1;
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int nodeId = heap[i];
+        double score = scores[nodeId];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[heap[parent]] >= score)
+                break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = nodeId;
+        pos[nodeId] = i;
+    }
+
+    private void siftDown(int i) {
+        int nodeId = heap[i];
+        double score = scores[nodeId];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && scores[heap[child + 1]] > scores[heap[child]])
+                child++;
+            if (scores[heap[child]] <= score)
+                break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = nodeId;
+        pos[nodeId] = i;
+    }
+
+}
@@ -1,6 +1,6 @@
 package graph;
 
-import java.util.*;
+import java.util.Map;
 
 /**
  * Created by chao on 7/3/15.
@@ -10,71 +10,63 @@ public class Propagator {
 	Graph mGraph;
 	int mGraphSize; // number of nodes in the graph
 	double[] mScore; // the approximte scores for all the nodes
-	double[] propagationScore; // the max heap that stores the propagation scores of nodes
-	PriorityQueue<Integer> queue; // the max heap that stores the propagation scores of nodes
+	double[] propagationScore; // the residual scores that have not been propagated yet
+	IndexedHeap queue; // the max heap of the nodes ordered by their propagation scores
+	SearchWorkspace workspace; // holds mScore and propagationScore, reused across queries
 
 	public Propagator(Graph graph) {
 		this.mGraph = graph;
 		this.mGraphSize = graph.getNodeCnt();
+		this.workspace = new SearchWorkspace(mGraphSize, 2);
+		this.mScore = workspace.get(0);
+		this.propagationScore = workspace.get(1);
+		this.queue = new IndexedHeap(mGraphSize, propagationScore);
 	}
 
 	public Map<Integer, Double> search(int queryId, double epsilon, double c, double errorBound) {
 		initialize(queryId, c);
 		int iter = 0;
-		while (queue.size() > 0 && propagationScore[queue.peek()] > c * errorBound) {
+		while (!queue.isEmpty() && propagationScore[queue.peek()] > c * errorBound) {
 			int nodeId = queue.poll();
-			propagate(nodeId, c);
+			// reset the residual before propagating, so the score pushed back through a self loop is not lost
+			double toPropagateScore = propagationScore[nodeId];
 			propagationScore[nodeId] = 0;
+			propagate(nodeId, toPropagateScore, c);
 			iter ++;
 			if (iter >= 2000) {
 				System.out.println(iter);
 				break;
 			}
 		}
-		Map<Integer, Double> results = new HashMap<Integer, Double>();
-		for (int i = 0; i < mScore.length; i++) {
-			if (mScore[i] >= epsilon)
-				results.put(i, mScore[i]);
-		}
+		Map<Integer, Double> results = workspace.collect(0, epsilon);
 //		System.out.println(results);
 		return results;
 	}
 
 	private void initialize(int queryId, double c) {
-		mScore = new double[mGraphSize];
-		propagationScore = new double[mGraphSize];
+		// only the nodes visited by the previous query are cleared
+		workspace.reset();
+		queue.clear();
+		workspace.touch(queryId);
 		mScore[queryId] = propagationScore[queryId] = c;
-
-		queue = new PriorityQueue(100, new Comparator<Integer>() {
-			public int compare(Integer c1, Integer c2) {
-				// descending order of score
-				if (propagationScore[c1] - propagationScore[c2] < 0)
-					return 1;
-				else if (propagationScore[c1] - propagationScore[c2] > 0)
-					return -1;
-				else
-					return 0;
-			}
-		}
-		);
 		queue.offer(queryId);
 	}
 
 	// propagate the delta rwr from node id to its in-neighbors
-	private void propagate(int nodeId, double c) {
-		double toPropagateScore = propagationScore[nodeId];
-		List<NodeTransition> inTransitions = mGraph.getIncomingTransitions(nodeId);
-		for (NodeTransition nt : inTransitions) {
-			int neighborId = nt.getNodeId();
+	private void propagate(int nodeId, double toPropagateScore, double c) {
+		int[] inOffsets = mGraph.getInOffsets();
+		int[] inSources = mGraph.getInSources();
+		double[] inProbs = mGraph.getInProbs();
+		for (int k = inOffsets[nodeId]; k < inOffsets[nodeId + 1]; k++) {
+			int neighborId = inSources[k];
 			// compute the delta score for the neighbor
-			double probability = nt.getProbability();
+			double probability = inProbs[k];
 			double deltaScore = (1 - c) * probability * toPropagateScore;
+			workspace.touch(neighborId);
 			mScore[neighborId] += deltaScore;
 			// update the propagation score for the neighbor
 			propagationScore[neighborId] += deltaScore;
-			// update the heap
-			if (queue.contains(neighborId))
-				queue.remove(neighborId);
+			// the score only increases, so the neighbor is inserted or moved up in the heap
 			queue.offer(neighborId);
 		}
 	}
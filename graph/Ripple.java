@@ -10,9 +10,9 @@ public class Ripple {
     int S = 1; // the number of nodes for expansion in each round
     int T = 1; // the number of iterations after expansion in each round
 
-    Double[] mScore = null;
-    Double[] mPreviousScore = null;
-    Set<Integer> mVicinityNodes = null;
+    double[] mScore = null;
+    double[] mPreviousScore = null;
+    SearchWorkspace mWorkspace; // the score arrays; the touched nodes are the vicinity nodes
     Set<Integer> mBoundaryNodes = null;
 
     double mOutsideUB = 1.0; // upper bound for nodes outside the neighborhood
@@ -27,6 +27,7 @@ public class Ripple {
     public Ripple(Graph graph) {
         this.mGraph = graph;
         this.mGraphSize = graph.getNodeCnt();
+        this.mWorkspace = new SearchWorkspace(mGraphSize, 2);
     }
 
     public Map<Integer, Double> search(int queryId, double epsilon, double c, double errorBound) {
@@ -39,11 +40,7 @@ public class Ripple {
             update(queryId, c);
             calcBounds(c);
         }
-        Map<Integer, Double> results = new HashMap<Integer, Double>();
-        for(int i=0; i<mScore.length; i++) {
-            if (mScore[i] >= epsilon)
-                results.put(i, mScore[i]);
-        }
+        Map<Integer, Double> results = mWorkspace.collect(0, epsilon);
 //        System.out.println(results);
         return results;
     }
@@ -56,17 +53,15 @@ public class Ripple {
         // initialize the bounds
         mInsideUB = mOutsideUB = 1.0;
 
-        // initialize the scores
-        mScore = new Double[mGraphSize];
-        mPreviousScore = new Double[mGraphSize];
-        for (int i = 0; i < mGraphSize; i++)
-            mScore[i] = mPreviousScore[i] = 0.0;
+        // initialize the scores, only the vicinity of the previous query is cleared
+        mWorkspace.reset();
+        mScore = mWorkspace.get(0);
+        mPreviousScore = mWorkspace.get(1);
 
         // initialize boundary and neighborhood
-        mVicinityNodes = new HashSet<Integer>();
         mBoundaryNodes = new HashSet<Integer>();
 
-        mVicinityNodes.add(queryId);
+        mWorkspace.touch(queryId);
         mBoundaryNodes.add(queryId);
     }
 
@@ -75,9 +70,12 @@ public class Ripple {
         // expand S boundary nodes with the largest score
         int boundaryNodeId = findToExpandBoundaryNode();
         mBoundaryNodes.remove(boundaryNodeId);
-        ArrayList<Integer> inNeighbors = mGraph.getInNeighbors(boundaryNodeId);
-        mVicinityNodes.addAll(inNeighbors); // update the vicinity node set
-        mBoundaryNodes.addAll(inNeighbors); // update the boundary node set, false positives will be removed later
+        int[] inOffsets = mGraph.getInOffsets();
+        int[] inSources = mGraph.getInSources();
+        for (int k = inOffsets[boundaryNodeId]; k < inOffsets[boundaryNodeId + 1]; k++) {
+            mWorkspace.touch(inSources[k]); // update the vicinity node set
+            mBoundaryNodes.add(inSources[k]); // update the boundary node set, false positives will be removed later
+        }
 
         // update the boundary node set
         Iterator<Integer> iterator = mBoundaryNodes.iterator();
@@ -103,9 +101,10 @@ public class Ripple {
     }
 
     private boolean isBoundary(int id) {
-        List<Integer> inNeighbors = mGraph.getInNeighbors(id);
-        for (Integer i : inNeighbors) {
-            if (!mVicinityNodes.contains(i))
+        int[] inOffsets = mGraph.getInOffsets();
+        int[] inSources = mGraph.getInSources();
+        for (int k = inOffsets[id]; k < inOffsets[id + 1]; k++) {
+            if (!mWorkspace.isTouched(inSources[k]))
                 return true;
         }
         return false;
@@ -114,9 +113,9 @@ public class Ripple {
 
     // swap previous and current score arrays, preparing for update
     private void swap() {
-        Double[] tmp = mPreviousScore;
-        mPreviousScore = mScore;
-        mScore = tmp;
+        mWorkspace.swap(0, 1);
+        mScore = mWorkspace.get(0);
+        mPreviousScore = mWorkspace.get(1);
     }
 
 
@@ -124,12 +123,15 @@ public class Ripple {
     public void update(int queryId, double c) {
         for (int i = 1; i <= T; i++) {
             swap(); // swap previous and current score arrays, preparing for update
-            for (Integer nodeId : mVicinityNodes) {
-                List<NodeTransition> outTransitions = mGraph.getOutgoingTransitions(nodeId);
+            int[] outOffsets = mGraph.getOutOffsets();
+            int[] outTargets = mGraph.getOutTargets();
+            double[] outProbs = mGraph.getOutProbs();
+            for (int v = 0; v < mWorkspace.numTouched(); v++) {
+                int nodeId = mWorkspace.getTouched(v);
                 double score = 0;
-                for (NodeTransition nt : outTransitions) {
-                    double probability = nt.getProbability();
-                    int neighborId = nt.getNodeId();
+                for (int k = outOffsets[nodeId]; k < outOffsets[nodeId + 1]; k++) {
+                    double probability = outProbs[k];
+                    int neighborId = outTargets[k];
                     score += mPreviousScore[neighborId] * probability;
                 }
                 score *= (1 - c);
@@ -148,9 +150,11 @@ public class Ripple {
 
     private void findDelta() {
         mDelta = 0;
-        for (Integer nodeId : mVicinityNodes)
+        for (int v = 0; v < mWorkspace.numTouched(); v++) {
+            int nodeId = mWorkspace.getTouched(v);
             if (mScore[nodeId] - mPreviousScore[nodeId] > mDelta)
                 mDelta = mScore[nodeId] - mPreviousScore[nodeId];
+        }
     }
 
 
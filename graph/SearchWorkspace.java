@@ -0,0 +1,79 @@
+package graph;
+
+import utils.IntList;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The score arrays of an rwr searcher, allocated once and reused across the query nodes.
+ * The nodes whose scores are written are tracked, so that resetting the arrays and
+ * extracting the results only cost the number of visited nodes instead of the graph size.
+ */
+public class SearchWorkspace {
+
+    double[][] arrays; // the score arrays, each of the graph size
+    boolean[] touched;
+    IntList touchedNodes = new IntList(); // the visited nodes, in the order of the first visit
+
+    public SearchWorkspace(int numNodes, int numArrays) {
+        arrays = new double[numArrays][numNodes];
+        touched = new boolean[numNodes];
+    }
+
+    public double[] get(int index) {
+        return arrays[index];
+    }
+
+    // swap two score arrays, e.g. the previous and current scores of an iterative searcher.
+    public void swap(int i, int j) {
+        double[] tmp = arrays[i];
+        arrays[i] = arrays[j];
+        arrays[j] = tmp;
+    }
+
+    // mark the node as visited, return true if it was not visited before.
+    public boolean touch(int nodeId) {
+        if (touched[nodeId])
+            return false;
+        touched[nodeId] = true;
+        touchedNodes.add(nodeId);
+        return true;
+    }
+
+    public boolean isTouched(int nodeId) {
+        return touched[nodeId];
+    }
+
+    public int numTouched() {
+        return touchedNodes.size();
+    }
+
+    public int getTouched(int index) {
+        return touchedNodes.get(index);
+    }
+
+    // zero the scores of the visited nodes only, preparing for the next query.
+    public void reset() {
+        for (int i = 0; i < touchedNodes.size(); i++) {
+            int nodeId = touchedNodes.get(i);
+            for (double[] array : arrays)
+                array[nodeId] = 0;
+            touched[nodeId] = false;
+        }
+        touchedNodes.clear();
+    }
+
+    // the visited nodes whose scores in the given array are no smaller than epsilon.
+    public Map<Integer, Double> collect(int index, double epsilon) {
+        double[] scores = arrays[index];
+        Map<Integer, Double> results = new HashMap<Integer, Double>();
+        for (int i = 0; i < touchedNodes.size(); i++) {
+            int nodeId = touchedNodes.get(i);
+            if (scores[nodeId] >= epsilon)
+                results.put(nodeId, scores[nodeId]);
+        }
+        return results;
+    }
+
+}
@@ -6,8 +6,10 @@ public class Squeeze {
 
     Graph mGraph;
     int mGraphSize; // number of nodes in the graph
-	Double [] mScore = null;
-	Double [] mPreviousScore = null;
+	double [] mScore = null;
+	double [] mPreviousScore = null;
+	SearchWorkspace mWorkspace; // the score arrays; the touched nodes are those reached so far
+	int mFrontier = 0; // the touched nodes from this index on have not been expanded yet
 	double mErrorBound;
 	double mThreshold = -1; // the k-th lower bound as the threshold
 	int mTotalIter = 0;
@@ -15,42 +17,45 @@ public class Squeeze {
 	public Squeeze(Graph graph) {
         this.mGraph = graph;
         this.mGraphSize = graph.getNodeCnt();
+        this.mWorkspace = new SearchWorkspace(mGraphSize, 2);
 	}
 	
 	public Map<Integer, Double> search(int queryId, double epsilon, double c, double errorBound) {
-        initialize();
+        initialize(queryId);
         while (mErrorBound >= errorBound) {
 			swap();
 			update(queryId, c);
             mTotalIter += 1;
 			mErrorBound *= (1-c);
 		}
-        Map<Integer, Double> results = new HashMap<Integer, Double>();
-        for(int i=0; i<mScore.length; i++) {
-            if (mScore[i] >= epsilon)
-                results.put(i, mScore[i]);
-        }
+        Map<Integer, Double> results = mWorkspace.collect(0, epsilon);
 //		System.out.println(results);
 		return results;
 	}
 	
-	public void initialize() {
+	public void initialize(int queryId) {
         mErrorBound = 1.0;
         mThreshold = -1.0;
         mTotalIter = 0;
-		mScore = new Double [mGraphSize];
-		mPreviousScore = new Double [mGraphSize];
-		for(int i=0; i<mGraphSize; i++)
-			mScore[i] = mPreviousScore[i] = 0.0;
+		// only the nodes reached by the previous query are cleared
+		mWorkspace.reset();
+		mScore = mWorkspace.get(0);
+		mPreviousScore = mWorkspace.get(1);
+		mWorkspace.touch(queryId);
+		mFrontier = 0;
 	}
 	
 	public void update(int queryId, double c) {
-		for(int i=0; i<mGraphSize; i++)	{
-			List<NodeTransition> outNeighbors = mGraph.getOutgoingTransitions(i);
+		int[] outOffsets = mGraph.getOutOffsets();
+		int[] outTargets = mGraph.getOutTargets();
+		double[] outProbs = mGraph.getOutProbs();
+		expandFrontier();
+		for(int v=0; v<mWorkspace.numTouched(); v++)	{
+			int i = mWorkspace.getTouched(v);
 			double score = 0;
-			for(NodeTransition nt: outNeighbors) {
-				double probability = nt.getProbability();
-				int neighborId = nt.getNodeId();
+			for(int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+				double probability = outProbs[k];
+				int neighborId = outTargets[k];
 				score += mPreviousScore[neighborId] * probability;
 			}
 			score *= (1 - c);
@@ -64,9 +69,23 @@ public class Squeeze {
 	
 	//swap previous and current socialInfluenceArray, preparing for next iteration
 	private void swap()	{
-		Double [] tmp = mPreviousScore;
-		mPreviousScore = mScore;
-		mScore = tmp;
+		mWorkspace.swap(0, 1);
+		mScore = mWorkspace.get(0);
+		mPreviousScore = mWorkspace.get(1);
+	}
+
+	// a node has a nonzero score only if one of its out-neighbors had one in the previous iteration,
+	// so only the in-neighbors of the newly reached nodes need to join the update.
+	private void expandFrontier() {
+		int[] inOffsets = mGraph.getInOffsets();
+		int[] inSources = mGraph.getInSources();
+		int end = mWorkspace.numTouched();
+		for (int v = mFrontier; v < end; v++) {
+			int nodeId = mWorkspace.getTouched(v);
+			for (int k = inOffsets[nodeId]; k < inOffsets[nodeId + 1]; k++)
+				mWorkspace.touch(inSources[k]);
+		}
+		mFrontier = end;
 	}
 	
     public int getNumOfIter() {
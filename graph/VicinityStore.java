@@ -0,0 +1,229 @@
+package graph;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * The rwr vicinity of all the nodes in a compressed sparse row layout: for each node, the ids of the nodes
+ * that reach it are sorted, with their rwr scores in a parallel column, and an offset table points to the
+ * range of each node. The columns are either built in memory, or memory-mapped from a binary file, so
+ * the vicinity is served without materializing a map for each node. The transpose has the same layout, with
+ * the nodes that each node reaches in its range.
+ *
+ * File format (big-endian): int magic, int numNodes, long numEntries, long[numNodes + 1] offsets,
+ * int[numEntries] from ids, double[numEntries] rwr scores.
+ */
+public class VicinityStore {
+
+    static final int MAGIC = 0x5649434e; // "VICN"
+    static final int HEADER_SIZE = 16;
+    // the columns are split into chunks, since one buffer can hold at most 2^31 bytes.
+    static final int CHUNK_BITS = 27;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    int numNodes;
+    long numEntries;
+    LongBuffer offsets;
+    IntBuffer[] fromIds;
+    DoubleBuffer[] scores;
+
+    private VicinityStore(int numNodes, long numEntries) {
+        this.numNodes = numNodes;
+        this.numEntries = numEntries;
+        int numChunks = (int) ((numEntries + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        this.fromIds = new IntBuffer[numChunks];
+        this.scores = new DoubleBuffer[numChunks];
+    }
+
+    // build the store in memory. key: the to node id, value: the rwr scores from the nodes that reach it.
+    // the store covers at least numNodes nodes, and all the node ids that appear in the vicinity.
+    public static VicinityStore build(int numNodes, Map<Integer, Map<Integer, Double>> vicinity) {
+        for (Map.Entry<Integer, Map<Integer, Double>> e : vicinity.entrySet()) {
+            numNodes = Math.max(numNodes, e.getKey() + 1);
+            for (Integer fromId : e.getValue().keySet())
+                numNodes = Math.max(numNodes, fromId + 1);
+        }
+        long[] offsetArray = new long[numNodes + 1];
+        for (int nodeId = 0; nodeId < numNodes; nodeId++) {
+            Map<Integer, Double> neighbors = vicinity.get(nodeId);
+            offsetArray[nodeId + 1] = offsetArray[nodeId] + (neighbors == null ? 0 : neighbors.size());
+        }
+        VicinityStore store = new VicinityStore(numNodes, offsetArray[numNodes]);
+        store.offsets = LongBuffer.wrap(offsetArray);
+        for (int c = 0; c < store.fromIds.length; c++) {
+            int chunkSize = (int) Math.min(CHUNK_SIZE, store.numEntries - ((long) c << CHUNK_BITS));
+            store.fromIds[c] = IntBuffer.wrap(new int[chunkSize]);
+            store.scores[c] = DoubleBuffer.wrap(new double[chunkSize]);
+        }
+        for (int nodeId = 0; nodeId < numNodes; nodeId++) {
+            Map<Integer, Double> neighbors = vicinity.get(nodeId);
+            if (neighbors == null)
+                continue;
+            int[] ids = new int[neighbors.size()];
+            int k = 0;
+            for (Integer fromId : neighbors.keySet())
+                ids[k++] = fromId;
+            Arrays.sort(ids);
+            long pos = offsetArray[nodeId];
+            for (int fromId : ids) {
+                store.fromIds[chunk(pos)].put(index(pos), fromId);
+                store.scores[chunk(pos)].put(index(pos), neighbors.get(fromId));
+                pos++;
+            }
+        }
+        return store;
+    }
+
+    // memory-map a store written by write(); the mapping stays valid after the file is closed.
+    public static VicinityStore load(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC)
+                throw new IOException("Not a vicinity file: " + file);
+            VicinityStore store = new VicinityStore(header.getInt(4), header.getLong(8));
+            long pos = HEADER_SIZE;
+            store.offsets = channel.map(FileChannel.MapMode.READ_ONLY, pos, 8L * (store.numNodes + 1)).asLongBuffer();
+            pos += 8L * (store.numNodes + 1);
+            for (int c = 0; c < store.fromIds.length; c++) {
+                long chunkSize = Math.min(CHUNK_SIZE, store.numEntries - ((long) c << CHUNK_BITS));
+                store.fromIds[c] = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L * chunkSize).asIntBuffer();
+                pos += 4L * chunkSize;
+            }
+            for (int c = 0; c < store.scores.length; c++) {
+                long chunkSize = Math.min(CHUNK_SIZE, store.numEntries - ((long) c << CHUNK_BITS));
+                store.scores[c] = channel.map(FileChannel.MapMode.READ_ONLY, pos, 8L * chunkSize).asDoubleBuffer();
+                pos += 8L * chunkSize;
+            }
+            return store;
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void write(String file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(numNodes);
+            out.writeLong(numEntries);
+            for (int i = 0; i <= numNodes; i++)
+                out.writeLong(offsets.get(i));
+            for (long pos = 0; pos < numEntries; pos++)
+                out.writeInt(fromIds[chunk(pos)].get(index(pos)));
+            for (long pos = 0; pos < numEntries; pos++)
+                out.writeDouble(scores[chunk(pos)].get(index(pos)));
+        } finally {
+            out.close();
+        }
+    }
+
+    // the store with the rows and the columns swapped: the range of each node holds the sorted ids of the nodes
+    // it reaches, with the rwr scores to them. It is built in memory, and can be written and mapped like this one.
+    public VicinityStore transpose() {
+        long[] offsetArray = new long[numNodes + 1];
+        for (long pos = 0; pos < numEntries; pos++)
+            offsetArray[getId(pos) + 1]++;
+        for (int nodeId = 0; nodeId < numNodes; nodeId++)
+            offsetArray[nodeId + 1] += offsetArray[nodeId];
+        VicinityStore store = new VicinityStore(numNodes, numEntries);
+        store.offsets = LongBuffer.wrap(offsetArray);
+        for (int c = 0; c < store.fromIds.length; c++) {
+            int chunkSize = (int) Math.min(CHUNK_SIZE, numEntries - ((long) c << CHUNK_BITS));
+            store.fromIds[c] = IntBuffer.wrap(new int[chunkSize]);
+            store.scores[c] = DoubleBuffer.wrap(new double[chunkSize]);
+        }
+        // the next free position in each row; the rows are visited in ascending order, so each range comes out sorted
+        long[] next = Arrays.copyOf(offsetArray, numNodes);
+        for (int toId = 0; toId < numNodes; toId++) {
+            for (long pos = getStart(toId); pos < getEnd(toId); pos++) {
+                long k = next[getId(pos)]++;
+                store.fromIds[chunk(k)].put(index(k), toId);
+                store.scores[chunk(k)].put(index(k), getScore(pos));
+            }
+        }
+        return store;
+    }
+
+    // the rwr score from fromId to toId, found by a binary search in the vicinity of toId.
+    public double getRWR(int fromId, int toId) {
+        long pos = find(toId, fromId);
+        return pos < 0 ? 0 : getScore(pos);
+    }
+
+    // whether id is in the range of nodeId.
+    public boolean contains(int nodeId, int id) {
+        return find(nodeId, id) >= 0;
+    }
+
+    // the range of nodeId is [getStart(nodeId), getEnd(nodeId)), and is empty for an unknown node.
+    public long getStart(int nodeId) {
+        if (nodeId < 0 || nodeId >= numNodes)
+            return 0;
+        return offsets.get(nodeId);
+    }
+
+    public long getEnd(int nodeId) {
+        if (nodeId < 0 || nodeId >= numNodes)
+            return 0;
+        return offsets.get(nodeId + 1);
+    }
+
+    public int getId(long pos) {
+        return fromIds[chunk(pos)].get(index(pos));
+    }
+
+    public double getScore(long pos) {
+        return scores[chunk(pos)].get(index(pos));
+    }
+
+    public Map<Integer, Double> getVicinity(int toId) {
+        Map<Integer, Double> results = new HashMap<Integer, Double>();
+        if (toId < 0 || toId >= numNodes)
+            return results;
+        for (long pos = offsets.get(toId); pos < offsets.get(toId + 1); pos++)
+            results.put(getId(pos), getScore(pos));
+        return results;
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    public long numEntries() {
+        return numEntries;
+    }
+
+    // the position of id in the range of nodeId, or -1 if it is not there.
+    private long find(int nodeId, int id) {
+        long low = getStart(nodeId);
+        long high = getEnd(nodeId) - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int midId = getId(mid);
+            if (midId < id)
+                low = mid + 1;
+            else if (midId > id)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private static int chunk(long pos) {
+        return (int) (pos >>> CHUNK_BITS);
+    }
+
+    private static int index(long pos) {
+        return (int) (pos & CHUNK_MASK);
+    }
+
+}
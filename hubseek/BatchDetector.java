@@ -39,7 +39,8 @@ public class BatchDetector extends Detector {
     protected void init(TweetDatabase td, long queryInterval, double bandwidth, double epsilon, double eta) {
         this.td = td;
         hubSeek = new HubSeek(bandwidth, epsilon, graph);
-        IDFWeighter weighter = new IDFWeighter(td.getTweets());
+        hubSeek.setParallelism(parallelism);
+        weighter = new IDFWeighter(td.getTweets());
         ranker = new Ranker(clustream, weighter, eta);
         this.bandwidth = bandwidth;
         this.epsilon = epsilon;
@@ -4,6 +4,7 @@ import clustream.Clustream;
 import com.mongodb.BasicDBObject;
 import geo.TweetDatabase;
 import graph.Graph;
+import rank.IDFWeighter;
 import rank.Ranker;
 
 import java.io.BufferedWriter;
@@ -22,6 +23,7 @@ public abstract class Detector {
     Graph graph;
     HubSeek hubSeek;
     Ranker ranker;
+    IDFWeighter weighter;
 
     TweetDatabase td;
 
@@ -32,6 +34,7 @@ public abstract class Detector {
     long startTS;
     long endTS;
     boolean updateMode = false;
+    int parallelism = 1; // number of worker threads for the batch clustering in hubseek.
 
     // each event is actually a geo-entity cluster
     List<TweetCluster> events;
@@ -44,6 +47,8 @@ public abstract class Detector {
     int numTweetsHubSeekDeletion; // number of tweets that have been deleted.
     int numTweetsHubSeekInsertion; // number of tweets that have been inserted.
     int numReferencePeriods; // number of reference periods when ranking.
+    int numHubCycles; // number of local hub cycles found by hubseek, which should be 0.
+    double proximityCacheHitRatio; // hit ratio of the entity proximity cache in hubseek.
     double timeClustream; // elapsed time for clustream
     double timeGraphVicinity; // time for computing vicinity in graph.
     double timeHubSeekBatch; // elapsed time for clustering the tweets in a batch mode.
@@ -55,6 +60,10 @@ public abstract class Detector {
         this.graph = graph;
     }
 
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     public abstract void detect(TweetDatabase td, long queryInterval, double bandwidth, double epsilon, double minSup, long refTimeSpan, double eta);
 
     public abstract void update(TweetDatabase deleteTweets, TweetDatabase insertTweets,
@@ -71,6 +80,8 @@ public abstract class Detector {
         this.numTweetsHubSeekDeletion = hubSeek.getNumDeletedTweet();
         this.numTweetsHubSeekInsertion = hubSeek.getNumInsertedTweet();
         this.numReferencePeriods = ranker.getNumReferencePeriods();
+        this.numHubCycles = hubSeek.getNumHubCycles();
+        this.proximityCacheHitRatio = hubSeek.getProximityCacheHitRatio();
         this.timeClustream = clustream.getElapsedTime();
         this.timeGraphVicinity = graph.getTimeCalcVicinity();
         this.timeHubSeekBatch = hubSeek.getTimeBatchClustering();
@@ -105,6 +116,8 @@ public abstract class Detector {
                 .append("numTweetsHubSeek", numTweetsHubSeek)
                 .append("numTweetsDeletion", numTweetsHubSeekDeletion)
                 .append("numTweetsInsertion", numTweetsHubSeekInsertion)
+                .append("numHubCycles", numHubCycles)
+                .append("proximityCacheHitRatio", proximityCacheHitRatio)
                 .append("timeClustream", timeClustream)
                 .append("timeGraphVicinity", timeGraphVicinity)
                 .append("timeHubSeekBatch", timeHubSeekBatch)
@@ -0,0 +1,79 @@
+package hubseek;
+
+import utils.IntList;
+
+import java.util.*;
+
+/**
+ * A uniform grid over the tweets in the current window. The side of each cell equals
+ * the kernel bandwidth, so all the tweets within the bandwidth of a location are in the 3x3 cells around it.
+ * The tweets are referred to by their slots in HubSeek, and each slot keeps its position in its cell,
+ * so that a tweet is removed in constant time.
+ */
+public class GridIndex {
+
+    double cellSize;
+    Map<Long, IntList> cells = new HashMap<Long, IntList>(); // key: cell id, value: slots of the tweets in the cell
+    int[] positions = new int[16]; // <slot, position of the slot in its cell>
+
+    public GridIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void add(double lng, double lat, int slot) {
+        long cellId = toCellId(toCell(lng), toCell(lat));
+        IntList members = cells.get(cellId);
+        if (members == null) {
+            members = new IntList();
+            cells.put(cellId, members);
+        }
+        if (slot >= positions.length)
+            positions = Arrays.copyOf(positions, Math.max(positions.length * 2, slot + 1));
+        positions[slot] = members.size();
+        members.add(slot);
+    }
+
+    public void remove(double lng, double lat, int slot) {
+        long cellId = toCellId(toCell(lng), toCell(lat));
+        IntList members = cells.get(cellId);
+        if (members == null)
+            return;
+        // the last slot of the cell is moved to the position of the removed one.
+        int position = positions[slot];
+        members.removeAt(position);
+        if (position < members.size())
+            positions[members.get(position)] = position;
+        // free the empty cells so that the grid does not grow as the window slides.
+        if (members.isEmpty())
+            cells.remove(cellId);
+    }
+
+    // get the slots of the tweets in the 3x3 cells around the given location.
+    public IntList getCandidates(double lng, double lat) {
+        IntList results = new IntList();
+        int cx = toCell(lng);
+        int cy = toCell(lat);
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                IntList members = cells.get(toCellId(cx + dx, cy + dy));
+                if (members != null)
+                    results.addAll(members);
+            }
+        }
+        return results;
+    }
+
+    public int numCells() {
+        return cells.size();
+    }
+
+    private int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    // pack the two cell coordinates into one key.
+    private long toCellId(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+}
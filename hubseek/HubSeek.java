@@ -1,9 +1,14 @@
 package hubseek;
 
 import geo.GeoTweet;
+import geo.TweetStore;
 import graph.Graph;
+import utils.IntList;
+import utils.LongIntMap;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class performs the batch hubseek algorithm, and also supports
@@ -12,19 +17,50 @@ import java.util.*;
  */
 public class HubSeek {
 
+    // the phases of the batch clustering, each of which is independent per point.
+    static final int PHASE_NEIGHBORHOOD = 0;
+    static final int PHASE_SCORE = 1;
+    static final int PHASE_LOCAL_HUB = 2;
+    static final int DEFAULT_PROXIMITY_CACHE_SIZE = 1 << 16;
+
     double bandwidth;
     double epsilon;
     Graph entityGraph;
-    Map<Long, GeoTweet> points; // <tweet Id, tweet>
-    Map<Long, Set<Long>> neighborhood;
-    Map<Long, Double> scores;
-    Map<Long, Long> localHubs;
-    Map<Long, Long> globalHubs;
+    // each point is kept in an int slot, and all the per-point states are primitive arrays indexed by the slot.
+    LongIntMap slotOf; // <tweet Id, slot>
+    boolean[] alive; // false for the free slots
+    long[] tweetIds;
+    double[] lngs;
+    double[] lats;
+    int[][] entityIds; // <slot, sorted entity ids>
+    long[] fingerprints; // <slot, fingerprint of the entity set>
+    // the points are given either as tweets, or as the indices of the tweets in a store.
+    GeoTweet[] tweets; // <slot, tweet>, used when the points are given as tweets
+    TweetStore store;
+    int[] storeIndices; // <slot, index in the store>, used when the points are given from the store
+    NeighborList[] neighborhood; // <slot, in-neighbors with the scores they contribute to the point>
+    NeighborList[] outNeighborhood; // <slot, out-neighbors with the scores the point contributes>, cached for the incremental updates
+    double[] scores;
+    int[] localHubs; // <slot, slot of the local hub>
+    int[] globalHubs; // <slot, slot of the global hub>
+    int numSlots; // number of slots that have been used, including the free ones
+    IntList freeSlots; // the slots of the deleted points, which are reused by insertion
+    int[] marks; // marks[slot] == markEpoch means the slot is marked, used to deduplicate slots without a set
+    int markEpoch;
+    GridIndex grid; // spatial index over the points, used to find the neighbor candidates.
+    ProximityCache proximityCache; // the graph proximities between the entity sets, shared by all the phases.
+    // the number of worker threads for the batch clustering; 1 means the sequential mode.
+    int parallelism = 1;
+    ForkJoinPool pool;
+    // the pools are shared by the hubseek instances, as a new instance is created for every query.
+    static Map<Integer, ForkJoinPool> sharedPools = new HashMap<Integer, ForkJoinPool>();
 
     // statistics
     int numBatchTweets; // number of tweets in the current window.
     int numDeletedTweet; // number of tweets that have been deleted.
     int numInsertedTweet; // number of tweets that have been inserted.
+    int numLocalHubUpdates; // number of points whose local hubs were recomputed in the last deletion or insertion.
+    int numHubCycles; // number of local hub cycles found when generating the clusters, which should be 0.
     double timeBatchClustering; // elapsed time for clustering the tweets in a batch mode.
     double timeDeletion; // elapsed time for deletion
     double timeInsertion; // elapsed time for insertion.
@@ -33,6 +69,26 @@ public class HubSeek {
         this.bandwidth = bandwidth;
         this.epsilon = epsilon;
         this.entityGraph = entityGraph;
+        this.proximityCache = new ProximityCache(entityGraph, DEFAULT_PROXIMITY_CACHE_SIZE);
+    }
+
+    // the max number of entity set pairs in the proximity cache; 0 disables the cache.
+    public void setProximityCacheSize(int capacity) {
+        this.proximityCache = new ProximityCache(entityGraph, capacity);
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.pool = this.parallelism > 1 ? getSharedPool(this.parallelism) : null;
+    }
+
+    private static synchronized ForkJoinPool getSharedPool(int parallelism) {
+        ForkJoinPool pool = sharedPools.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            sharedPools.put(parallelism, pool);
+        }
+        return pool;
     }
 
     /**
@@ -40,55 +96,139 @@ public class HubSeek {
      */
     public void cluster(List<GeoTweet> inputData) {
         long start = System.currentTimeMillis();
+        init(null, inputData.size());
+        // init input data points
+        for (GeoTweet t : inputData) {
+            if (!slotOf.containsKey(t.getTweetId()))
+                addPoint(t);
+        }
+        clusterPoints(start, inputData.size());
+    }
 
-        init(inputData);
+    /**
+     * cluster the tweets in [from, to) of the store in a batch mode, without creating the tweet objects.
+     * The later deletions and insertions should take the tweets from the same store.
+     */
+    public void cluster(TweetStore store, int from, int to) {
+        long start = System.currentTimeMillis();
+        init(store, to - from);
+        for (int i = from; i < to; i++) {
+            if (!slotOf.containsKey(store.getTweetId(i)))
+                addPoint(i);
+        }
+        clusterPoints(start, to - from);
+    }
+
+    private void clusterPoints(long start, int numTweets) {
         calcNeighborhood();
+        buildOutNeighborhood();
         calcScores();
         findLocalHubs();
 
         // write the stats
         long end = System.currentTimeMillis();
-        numBatchTweets = inputData.size();
+        numBatchTweets = numTweets;
         timeBatchClustering = (end - start) / 1000.0;
     }
 
 
-    private void init(List<GeoTweet> inputData) {
-        // init input data points
-        points = new HashMap<Long, GeoTweet>();
-        for (GeoTweet t : inputData) {
-            points.put(t.getTweetId(), t);
-        }
-        // init neighbhorhood
-        neighborhood = new HashMap<Long, Set<Long>>();
-        // init the rest arrays
-        scores = new HashMap<Long, Double>();
-        localHubs = new HashMap<Long, Long>();
-        globalHubs = new HashMap<Long, Long>();
+    private void init(TweetStore store, int numTweets) {
+        int capacity = Math.max(16, numTweets);
+        this.store = store;
+        slotOf = new LongIntMap(capacity);
+        alive = new boolean[capacity];
+        tweetIds = new long[capacity];
+        lngs = new double[capacity];
+        lats = new double[capacity];
+        entityIds = new int[capacity][];
+        fingerprints = new long[capacity];
+        tweets = store == null ? new GeoTweet[capacity] : null;
+        storeIndices = store == null ? null : new int[capacity];
+        neighborhood = new NeighborList[capacity];
+        outNeighborhood = new NeighborList[capacity];
+        marks = new int[capacity];
+        markEpoch = 0;
+        scores = new double[capacity];
+        localHubs = new int[capacity];
+        globalHubs = new int[capacity];
+        numSlots = 0;
+        freeSlots = new IntList();
+        grid = new GridIndex(bandwidth);
     }
 
 
     private void calcNeighborhood() {
-        for (Long tid : points.keySet()) {
-            // find the in-neighbors among points for e
-            Set<Long> inNeighbors = findInNeighbors(tid);
-            neighborhood.put(tid, inNeighbors);
-//            System.out.println("Neighborhood size" + inNeighbors.size());
+        runPhase(PHASE_NEIGHBORHOOD);
+    }
+
+    // the out-neighborhood is the transpose of the in-neighborhood.
+    private void buildOutNeighborhood() {
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!alive[slot])
+                continue;
+            NeighborList inNeighbors = neighborhood[slot];
+            for (int i = 0; i < inNeighbors.size(); i++)
+                outNeighborhood[inNeighbors.get(i)].add(slot, inNeighbors.getContribution(i));
         }
     }
 
     private void calcScores() {
-        for (Long tid : points.keySet()) {
-            // calc score for e using the current points
-            double score = calcScore(tid);
-            scores.put(tid, score);
-        }
+        runPhase(PHASE_SCORE);
     }
 
     private void findLocalHubs() {
-        for (Long tid : points.keySet()) {
-            Long localHub = findLocalHubForOnePoint(tid);
-            localHubs.put(tid, localHub);
+        runPhase(PHASE_LOCAL_HUB);
+    }
+
+    // run one phase for all the points, in parallel if a pool is set.
+    private void runPhase(int phase) {
+        if (pool == null) {
+            for (int slot = 0; slot < numSlots; slot++) {
+                if (alive[slot])
+                    processPoint(phase, slot);
+            }
+        } else {
+            pool.invoke(new PhaseTask(phase, 0, numSlots));
+        }
+    }
+
+    // each point only writes its own slot and reads the states of the previous phase,
+    // so the parallel mode gives the same results as the sequential one.
+    private void processPoint(int phase, int slot) {
+        if (phase == PHASE_NEIGHBORHOOD)
+            neighborhood[slot] = findInNeighbors(slot);
+        else if (phase == PHASE_SCORE)
+            scores[slot] = calcScore(slot);
+        else
+            localHubs[slot] = findLocalHubForOnePoint(slot);
+    }
+
+    // runs one phase for the slots in [lo, hi).
+    private class PhaseTask extends RecursiveAction {
+
+        static final int THRESHOLD = 64; // max number of slots that are processed in one task
+
+        int phase;
+        int lo;
+        int hi;
+
+        PhaseTask(int phase, int lo, int hi) {
+            this.phase = phase;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= THRESHOLD) {
+                for (int slot = lo; slot < hi; slot++) {
+                    if (alive[slot])
+                        processPoint(phase, slot);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new PhaseTask(phase, lo, mid), new PhaseTask(phase, mid, hi));
         }
     }
 
@@ -98,66 +238,153 @@ public class HubSeek {
 
     public void delete(List<GeoTweet> oldPoints) {
         long start = System.currentTimeMillis();
-        initForDelete(oldPoints);
+        checkSource(null);
+        long[] oldIds = new long[oldPoints.size()];
+        for (int i = 0; i < oldIds.length; i++)
+            oldIds[i] = oldPoints.get(i).getTweetId();
+        delete(oldIds, start);
+    }
+
+    // delete the tweets in [from, to) of the store.
+    public void delete(TweetStore store, int from, int to) {
+        long start = System.currentTimeMillis();
+        checkSource(store);
+        long[] oldIds = new long[to - from];
+        for (int i = from; i < to; i++)
+            oldIds[i - from] = store.getTweetId(i);
+        delete(oldIds, start);
+    }
+
+    private void delete(long[] oldIds, long start) {
+        int[] oldSlots = initForDelete(oldIds);
         // get the out neighborhood for the points that need to be deleted
-        Map<Long, Set<Long>> outNeighborhood = findOutNeighborhood(oldPoints);
+        NeighborList[] outNeighbors = getOutNeighborhood(oldSlots);
         // update the in-neighborhood for the existing points
-        updateNeighborhoodForDelete(outNeighborhood);
+        updateNeighborhoodForDelete(oldSlots, outNeighbors);
         // update the scores for existing points, note that the out neighborhood is defined on updated points
-        updateScoresForDelete(oldPoints, outNeighborhood);
+        IntList scoreChangedPoints = updateScoresForDelete(oldSlots, outNeighbors);
+        // the slots can be reused only after they are removed from the neighborhood.
+        releaseSlots(oldSlots);
         // update the local hubs.
-        updateLocalHubs();
+        updateLocalHubs(scoreChangedPoints);
         // write the stats
         long end = System.currentTimeMillis();
-        numDeletedTweet = oldPoints.size();
+        numDeletedTweet = oldIds.length;
         timeDeletion = (end - start) / 1000.0;
     }
 
 
-    // init the points and other data fields
-    // parameter: the old points that need to be deleted.
-    private void initForDelete(List<GeoTweet> oldPoints) {
-        for (GeoTweet e : oldPoints) {
-            Long tid = e.getTweetId();
-            points.remove(tid);
-            neighborhood.remove(tid);
-            scores.remove(tid);
-            localHubs.remove(tid);
-            globalHubs.remove(tid);
+    // remove the old points from the window, and return their slots (-1 for the points not in the window).
+    private int[] initForDelete(long[] oldIds) {
+        int[] oldSlots = new int[oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            int slot = slotOf.get(oldIds[i], -1);
+            oldSlots[i] = slot;
+            if (slot >= 0)
+                removePoint(slot);
         }
+        return oldSlots;
+    }
+
+
+    // the cached out neighbors of the old points, restricted to the remaining points.
+    private NeighborList[] getOutNeighborhood(int[] oldSlots) {
+        NeighborList[] results = new NeighborList[oldSlots.length];
+        for (int i = 0; i < oldSlots.length; i++) {
+            results[i] = new NeighborList();
+            if (oldSlots[i] < 0)
+                continue;
+            NeighborList outNeighbors = outNeighborhood[oldSlots[i]];
+            for (int j = 0; j < outNeighbors.size(); j++) {
+                if (alive[outNeighbors.get(j)])
+                    results[i].add(outNeighbors.get(j), outNeighbors.getContribution(j));
+            }
+        }
+        return results;
     }
 
 
     // update the neighborhood. Input: the out neighborhood for the old points.
-    private void updateNeighborhoodForDelete(Map<Long, Set<Long>> outNeighborhood) {
-        for (Long tid : outNeighborhood.keySet()) {
-            Set<Long> outNeighbors = outNeighborhood.get(tid);
-            for (Long neighbor : outNeighbors)
+    private void updateNeighborhoodForDelete(int[] oldSlots, NeighborList[] outNeighborhood) {
+        for (int i = 0; i < oldSlots.length; i++) {
+            int oldSlot = oldSlots[i];
+            if (oldSlot < 0)
+                continue;
+            NeighborList outNeighbors = outNeighborhood[i];
+            for (int j = 0; j < outNeighbors.size(); j++)
                 // remove e from the in-neighborhood
-                neighborhood.get(neighbor).remove(tid);
+                neighborhood[outNeighbors.get(j)].remove(oldSlot);
+            // remove e from the cached out-neighborhood of its remaining in-neighbors
+            NeighborList inNeighbors = neighborhood[oldSlot];
+            for (int j = 0; j < inNeighbors.size(); j++) {
+                int inNeighbor = inNeighbors.get(j);
+                if (alive[inNeighbor])
+                    this.outNeighborhood[inNeighbor].remove(oldSlot);
+            }
         }
     }
 
 
     // return the remaining tweets whose scores have been updated
-    private void updateScoresForDelete(List<GeoTweet> oldPoints, Map<Long, Set<Long>> outNeighborhood) {
-        for (GeoTweet e : oldPoints) {
-            // update the scores for the out neighbors of e.
-            Set<Long> outNeighborIds = outNeighborhood.get(e.getTweetId());
-            for (Long neighborId : outNeighborIds) {
-                GeoTweet neighbor = points.get(neighborId);
-                double deltaScore = neighbor.calcScoreFrom(e, bandwidth, entityGraph);
-                double updatedScore = scores.get(neighborId) - deltaScore;
-                scores.put(neighborId, updatedScore);
+    private IntList updateScoresForDelete(int[] oldSlots, NeighborList[] outNeighborhood) {
+        IntList scoreChangedPoints = new IntList();
+        for (int i = 0; i < oldSlots.length; i++) {
+            // update the scores for the out neighbors of e, with the contributions cached on the edges.
+            NeighborList outNeighbors = outNeighborhood[i];
+            for (int j = 0; j < outNeighbors.size(); j++) {
+                int neighbor = outNeighbors.get(j);
+                double deltaScore = outNeighbors.getContribution(j);
+                scores[neighbor] -= deltaScore;
+                scoreChangedPoints.add(neighbor);
             }
         }
+        return scoreChangedPoints;
+    }
+
+    private void releaseSlots(int[] oldSlots) {
+        for (int slot : oldSlots) {
+            if (slot < 0)
+                continue;
+            neighborhood[slot].clear();
+            outNeighborhood[slot].clear();
+            freeSlots.add(slot);
+        }
+    }
+
+    // update the local hubs for the points affected by the score changes.
+    private void updateLocalHubs(IntList scoreChangedPoints) {
+        IntList toUpdatePoints = findToUpdatePoints(scoreChangedPoints);
+        for (int i = 0; i < toUpdatePoints.size(); i++) {
+            int slot = toUpdatePoints.get(i);
+            localHubs[slot] = findLocalHubForOnePoint(slot);
+        }
+        numLocalHubUpdates = toUpdatePoints.size();
     }
 
-    // update the local hubs for the remaining points
-    private void updateLocalHubs() {
-        for (Long e : points.keySet()) {
-            Long localHub = findLocalHubForOnePoint(e);
-            localHubs.put(e, localHub);
+    // the local hub of a point can change only if its in-neighborhood changed, or the score of an in-neighbor changed.
+    // For point p whose score has been changed, we need to update all the points who have p as an in-neighbor,
+    // namely the out-neighbors of p. The points whose scores changed are also the ones whose in-neighborhood changed.
+    private IntList findToUpdatePoints(IntList scoreChangedPoints) {
+        IntList results = new IntList();
+        markEpoch++;
+        for (int i = 0; i < scoreChangedPoints.size(); i++) {
+            int slot = scoreChangedPoints.get(i);
+            if (!alive[slot])
+                continue;
+            mark(slot, results);
+            // reuse the cached out-neighborhood.
+            NeighborList outNeighbors = outNeighborhood[slot];
+            for (int j = 0; j < outNeighbors.size(); j++)
+                mark(outNeighbors.get(j), results);
+        }
+        return results;
+    }
+
+    // add the slot into the results if it has not been marked in the current epoch.
+    private void mark(int slot, IntList results) {
+        if (marks[slot] != markEpoch) {
+            marks[slot] = markEpoch;
+            results.add(slot);
         }
     }
 
@@ -167,71 +394,110 @@ public class HubSeek {
      */
     public void insert(List<GeoTweet> insertData) {
         long start = System.currentTimeMillis();
+        checkSource(null);
         // update the points
-        initForInsert(insertData);
+        int[] newSlots = new int[insertData.size()];
+        for (int i = 0; i < insertData.size(); i++) {
+            GeoTweet e = insertData.get(i);
+            // -1 for the points already in the window
+            newSlots[i] = slotOf.containsKey(e.getTweetId()) ? -1 : addPoint(e);
+        }
+        insert(newSlots, start);
+    }
+
+    // insert the tweets in [from, to) of the store.
+    public void insert(TweetStore store, int from, int to) {
+        long start = System.currentTimeMillis();
+        checkSource(store);
+        int[] newSlots = new int[to - from];
+        for (int i = from; i < to; i++)
+            newSlots[i - from] = slotOf.containsKey(store.getTweetId(i)) ? -1 : addPoint(i);
+        insert(newSlots, start);
+    }
+
+    private void insert(int[] newSlots, long start) {
         // get the out neighborhood for the points that need to be inserted
-        Map<Long, Set<Long>> outNeighborhood = findOutNeighborhood(insertData);
+        NeighborList[] outNeighbors = findOutNeighborhood(newSlots);
         // update the in-neighborhood for the existing points
-        updateNeighborhoodInsert(outNeighborhood);
+        updateNeighborhoodInsert(newSlots, outNeighbors);
         // update the scores for existing points
-        updateScoresInsert(insertData, outNeighborhood);
+        IntList scoreChangedPoints = updateScoresInsert(newSlots, outNeighbors);
         // update the local hubs.
-        updateLocalHubs();
+        updateLocalHubs(scoreChangedPoints);
         // write the stats
         long end = System.currentTimeMillis();
-        numInsertedTweet = insertData.size();
+        numInsertedTweet = newSlots.length;
         timeInsertion = (end - start) / 1000.0;
 
     }
 
 
-    // update the fields for insertion.
-    private void initForInsert(List<GeoTweet> insertData) {
-        for (GeoTweet e : insertData) {
-            long tid = e.getTweetId();
-            points.put(tid, e);
-            neighborhood.put(tid, new HashSet<Long>());
-            scores.put(tid, 0d);
-            localHubs.put(tid, -1L);
-            globalHubs.put(tid, -1L);
-        }
+    // the points of the updates must come in the same form as the clustered ones.
+    private void checkSource(TweetStore store) {
+        if (store != this.store)
+            throw new IllegalArgumentException(this.store == null ? "The points were clustered as tweets."
+                    : "The points were clustered from another tweet store.");
     }
 
 
-    private void updateNeighborhoodInsert(Map<Long, Set<Long>> outNeighborhood) {
-        for (Long e : outNeighborhood.keySet()) {
-            // add e into the in-neighbor set for e's out-neighbors
-            Set<Long> outNeighbors = outNeighborhood.get(e);
-            for (Long neighbor : outNeighbors) {
-                neighborhood.get(neighbor).add(e);
+    private void updateNeighborhoodInsert(int[] newSlots, NeighborList[] outNeighborhood) {
+        // add e into the in-neighbor set for e's out-neighbors
+        for (int i = 0; i < newSlots.length; i++) {
+            NeighborList outNeighbors = outNeighborhood[i];
+            for (int j = 0; j < outNeighbors.size(); j++)
+                neighborhood[outNeighbors.get(j)].add(newSlots[i], outNeighbors.getContribution(j));
+        }
+        // create the in-neighbor set for e itself, which replaces what has been added above.
+        for (int slot : newSlots) {
+            if (slot >= 0)
+                neighborhood[slot] = findInNeighbors(slot);
+        }
+        // cache the out-neighborhood of the new points, which are computed among all the points
+        markEpoch++;
+        for (int i = 0; i < newSlots.length; i++) {
+            if (newSlots[i] >= 0) {
+                this.outNeighborhood[newSlots[i]] = outNeighborhood[i];
+                marks[newSlots[i]] = markEpoch;
+            }
+        }
+        // and add the new points into the cached out-neighborhood of their old in-neighbors
+        for (int slot : newSlots) {
+            if (slot < 0)
+                continue;
+            NeighborList inNeighbors = neighborhood[slot];
+            for (int j = 0; j < inNeighbors.size(); j++) {
+                int inNeighbor = inNeighbors.get(j);
+                if (marks[inNeighbor] != markEpoch)
+                    this.outNeighborhood[inNeighbor].add(slot, inNeighbors.getContribution(j));
             }
-            // create the in-neighbor set for e itself
-            Set<Long> inNeighbors = findInNeighbors(e);
-            neighborhood.put(e, inNeighbors);
         }
     }
 
 
     // return the set of geo tweets whose scores have been updated
-    private void updateScoresInsert(List<GeoTweet> insertData, Map<Long, Set<Long>> outNeighborhood) {
+    private IntList updateScoresInsert(int[] newSlots, NeighborList[] outNeighborhood) {
+        IntList scoreChangedPoints = new IntList();
         // Update the scores for the old points
-        for (GeoTweet e: insertData) {
-            // update the scores for the out neighbors of e.
-            Set<Long> outNeighborIds = outNeighborhood.get(e.getTweetId());
-            for (Long neighborId : outNeighborIds) {
-                GeoTweet neighbor = points.get(neighborId);
-                double deltaScore = neighbor.calcScoreFrom(e, bandwidth, entityGraph);
+        for (int i = 0; i < newSlots.length; i++) {
+            // update the scores for the out neighbors of e, with the contributions cached on the edges.
+            NeighborList outNeighbors = outNeighborhood[i];
+            for (int j = 0; j < outNeighbors.size(); j++) {
+                int neighbor = outNeighbors.get(j);
+                double deltaScore = outNeighbors.getContribution(j);
                 // if the neighbor is the entity itself and the entity is new, then old score is 0.
-                double updatedScore = scores.get(neighborId) + deltaScore;
-                scores.put(neighborId, updatedScore);
+                scores[neighbor] += deltaScore;
+                scoreChangedPoints.add(neighbor);
             }
         }
         // calc the scores for the new points
-        for (GeoTweet e: insertData) {
+        for (int slot : newSlots) {
             // note that: the new points in the neighborhood is recomputed
-            double score = calcScore(e.getTweetId());
-            scores.put(e.getTweetId(), score);
+            if (slot >= 0) {
+                scores[slot] = calcScore(slot);
+                scoreChangedPoints.add(slot);
+            }
         }
+        return scoreChangedPoints;
     }
 
 
@@ -240,24 +506,26 @@ public class HubSeek {
      */
     public List<TweetCluster> genClusters(double supportThreshold) {
         findGlobalHubs();
-        Map<Long, TweetCluster> clusters = new HashMap<Long, TweetCluster>(); // key: mode, value: cluster
-        for (GeoTweet e : points.values()) {
-            Long globalHub = globalHubs.get(e.getTweetId());
-            if (clusters.containsKey(globalHub)) {
-                TweetCluster gec = clusters.get(globalHub);
-                gec.add(e, scores.get(e.getTweetId()));
-            } else {
+        Map<Integer, TweetCluster> clusters = new HashMap<Integer, TweetCluster>(); // key: slot of the mode, value: cluster
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!alive[slot])
+                continue;
+            int globalHub = globalHubs[slot];
+            TweetCluster gec = clusters.get(globalHub);
+            if (gec == null) {
                 // create a new cluster centered at the mode
-                GeoTweet hub = points.get(globalHub);
-                TweetCluster gec = new TweetCluster(hub);
-                gec.add(e, scores.get(e.getTweetId()));
+                gec = store == null ? new TweetCluster(tweets[globalHub])
+                        : new TweetCluster(store, storeIndices[globalHub]);
                 clusters.put(globalHub, gec);
             }
+            if (store == null)
+                gec.add(tweets[slot], scores[slot]);
+            else
+                gec.add(storeIndices[slot], scores[slot]);
         }
         // prune the clusters by size.
         List<TweetCluster> results = new ArrayList<TweetCluster>();
-        for(Map.Entry e : clusters.entrySet()) {
-            TweetCluster c = (TweetCluster) e.getValue();
+        for (TweetCluster c : clusters.values()) {
             if (c.size() >= supportThreshold)
                 results.add(c);
         }
@@ -265,101 +533,266 @@ public class HubSeek {
     }
 
 
+    // follow the local hubs to the global hub for every point. The resolved global hubs are reused by the
+    // later walks, and every point on a walk is assigned the global hub directly, so each point is visited once.
     private void findGlobalHubs() {
-        int cnt;
-        for (Long e : points.keySet()) {
-            cnt = 0;
-            Long currentPoint = e;
+        numHubCycles = 0;
+        for (int e = 0; e < numSlots; e++)
+            globalHubs[e] = -1;
+        IntList path = new IntList();
+        for (int e = 0; e < numSlots; e++) {
+            if (!alive[e] || globalHubs[e] >= 0)
+                continue;
+            // marks the points on the current walk, to detect cycles
+            markEpoch++;
+            path.clear();
+            int currentPoint = e;
+            int globalHub;
             while(true) {
-                Long localHub = localHubs.get(currentPoint);
-                if(currentPoint.equals(localHub))
+                if (globalHubs[currentPoint] >= 0) {
+                    // the rest of the chain has been resolved by a previous walk
+                    globalHub = globalHubs[currentPoint];
                     break;
-                cnt += 1;
-                if (cnt >= 1000) {
-                    System.out.println("current:" + currentPoint + "local hub:" + localHub);
-                    System.out.println(scores.get(currentPoint));
-                    System.out.println(neighborhood.get(currentPoint));
-                    System.out.println(neighborhood.get(localHub));
                 }
-                if (cnt >= 1010) {
-                    System.out.println("Finding global hubs error.");
-                    System.exit(1);
+                int localHub = localHubs[currentPoint];
+                if (currentPoint == localHub || localHub < 0 || !alive[localHub]) {
+                    globalHub = currentPoint;
+                    break;
                 }
-
+                if (marks[currentPoint] == markEpoch) {
+                    // the chain goes back to a point on this walk
+                    globalHub = breakCycle(path, currentPoint);
+                    numHubCycles++;
+                    break;
+                }
+                marks[currentPoint] = markEpoch;
+                path.add(currentPoint);
                 currentPoint = localHub;
             }
-            globalHubs.put(e, currentPoint);
+            // path compression
+            for (int i = 0; i < path.size(); i++)
+                globalHubs[path.get(i)] = globalHub;
+            globalHubs[currentPoint] = globalHub;
+        }
+        if (numHubCycles > 0)
+            System.out.println("Warning: found " + numHubCycles + " cycles when finding global hubs.");
+    }
+
+    // choose the point with the max score on the cycle as the global hub, with the tie broken by the larger tweet id.
+    // The cycle is the part of the path starting from the given point.
+    private int breakCycle(IntList path, int start) {
+        int globalHub = start;
+        for (int i = path.indexOf(start) + 1; i < path.size(); i++) {
+            int slot = path.get(i);
+            if (scores[slot] > scores[globalHub] || (scores[slot] == scores[globalHub]
+                    && tweetIds[slot] > tweetIds[globalHub]))
+                globalHub = slot;
         }
+        return globalHub;
+    }
+
+    /**
+     * slot management
+     */
+    // put the tweet into a free slot, and return the slot.
+    private int addPoint(GeoTweet e) {
+        int slot = addPoint(e.getTweetId(), e.getLocation().getLng(), e.getLocation().getLat(),
+                e.getSortedEntityIds(), e.getEntityFingerprint());
+        tweets[slot] = e;
+        return slot;
+    }
+
+    // put the tweet at the index of the store into a free slot, and return the slot.
+    private int addPoint(int index) {
+        int[] sortedEntityIds = store.getSortedEntityIds(index);
+        int slot = addPoint(store.getTweetId(index), store.getLng(index), store.getLat(index),
+                sortedEntityIds, GeoTweet.calcFingerprint(sortedEntityIds));
+        storeIndices[slot] = index;
+        return slot;
+    }
+
+    private int addPoint(long tweetId, double lng, double lat, int[] sortedEntityIds, long fingerprint) {
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.removeLast();
+        } else {
+            if (numSlots == alive.length)
+                grow(alive.length * 2);
+            slot = numSlots++;
+        }
+        alive[slot] = true;
+        tweetIds[slot] = tweetId;
+        lngs[slot] = lng;
+        lats[slot] = lat;
+        entityIds[slot] = sortedEntityIds;
+        fingerprints[slot] = fingerprint;
+        slotOf.put(tweetId, slot);
+        // reuse the neighbor arrays of the slot if there are
+        if (neighborhood[slot] == null) {
+            neighborhood[slot] = new NeighborList();
+            outNeighborhood[slot] = new NeighborList();
+        } else {
+            neighborhood[slot].clear();
+            outNeighborhood[slot].clear();
+        }
+        scores[slot] = 0;
+        localHubs[slot] = -1;
+        globalHubs[slot] = -1;
+        grid.add(lng, lat, slot);
+        return slot;
+    }
+
+    // remove the point from the window, the slot is not freed until releaseSlots is called.
+    private void removePoint(int slot) {
+        slotOf.remove(tweetIds[slot]);
+        grid.remove(lngs[slot], lats[slot], slot);
+        alive[slot] = false;
+        // drop the references, so that the deleted tweets can be collected
+        entityIds[slot] = null;
+        if (tweets != null)
+            tweets[slot] = null;
+    }
+
+    private void grow(int capacity) {
+        alive = Arrays.copyOf(alive, capacity);
+        tweetIds = Arrays.copyOf(tweetIds, capacity);
+        lngs = Arrays.copyOf(lngs, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        entityIds = Arrays.copyOf(entityIds, capacity);
+        fingerprints = Arrays.copyOf(fingerprints, capacity);
+        if (store == null)
+            tweets = Arrays.copyOf(tweets, capacity);
+        else
+            storeIndices = Arrays.copyOf(storeIndices, capacity);
+        neighborhood = Arrays.copyOf(neighborhood, capacity);
+        outNeighborhood = Arrays.copyOf(outNeighborhood, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        localHubs = Arrays.copyOf(localHubs, capacity);
+        globalHubs = Arrays.copyOf(globalHubs, capacity);
     }
 
     /**
      * utils functions
      */
     // find the in-neighbors for one geo-tweet
-    private Set<Long> findInNeighbors(Long tid) {
-        Set<Long> neighbors = new HashSet<Long>();
-        GeoTweet e = points.get(tid); // query tweet
-        for (GeoTweet other : points.values()) {
-            double geoDist = e.calcGeoDist(other);
-            double graphProximity = e.calcGraphDistFrom(entityGraph, other);
-            if (geoDist <= bandwidth && graphProximity >= epsilon)
-                neighbors.add(other.getTweetId());
+    private NeighborList findInNeighbors(int slot) {
+        NeighborList neighbors = new NeighborList();
+        // only the tweets in the 3x3 cells around the query tweet can be within the bandwidth.
+        IntList candidates = grid.getCandidates(lngs[slot], lats[slot]);
+        for (int i = 0; i < candidates.size(); i++) {
+            int otherSlot = candidates.get(i);
+            double geoDist = calcGeoDist(slot, otherSlot);
+            if (geoDist > bandwidth)
+                continue;
+            // skip the tweets with zero graph proximity to the query tweet.
+            if (usePruning() && !canReachFrom(slot, otherSlot))
+                continue;
+            double graphProximity = calcGraphDistFrom(slot, otherSlot);
+            if (graphProximity >= epsilon)
+                neighbors.add(otherSlot, calcContribution(geoDist, otherSlot));
         }
 //        neighbors.add(tid); // add the tweet itself into the set
         if (neighbors.size() == 0) {
-            System.out.println("no neighbor:" + e);
+            System.out.println("no neighbor:" + (store == null ? tweets[slot] : store.getTweet(storeIndices[slot])));
         }
         return neighbors;
     }
 
     // find the out-neighbors for one geo-entity
-    private Set<Long> findOutNeighbors(GeoTweet e) {
-        Set<Long> neighbors = new HashSet<Long>();
-        for (GeoTweet other : points.values()) {
-            double geoDist = e.calcGeoDist(other);
-            double graphProximity = other.calcGraphDistFrom(entityGraph, e);
-            if (geoDist <= bandwidth && graphProximity >= epsilon)
-                neighbors.add(other.getTweetId());
+    private NeighborList findOutNeighbors(int slot) {
+        NeighborList neighbors = new NeighborList();
+        IntList candidates = grid.getCandidates(lngs[slot], lats[slot]);
+        for (int i = 0; i < candidates.size(); i++) {
+            int otherSlot = candidates.get(i);
+            double geoDist = calcGeoDist(slot, otherSlot);
+            if (geoDist > bandwidth)
+                continue;
+            if (usePruning() && !canReachFrom(otherSlot, slot))
+                continue;
+            double graphProximity = calcGraphDistFrom(otherSlot, slot);
+            if (graphProximity >= epsilon)
+                neighbors.add(otherSlot, calcContribution(geoDist, slot));
         }
         return neighbors;
     }
 
+    // the Euclidean distance between two points, as GeoTweet.calcGeoDist.
+    private double calcGeoDist(int slot, int otherSlot) {
+        double latDiff = lats[slot] - lats[otherSlot];
+        double lngDiff = lngs[slot] - lngs[otherSlot];
+        return Math.sqrt(latDiff*latDiff + lngDiff*lngDiff);
+    }
+
+    // the graph proximity from the other point to the point, with the proximity from the cache.
+    private double calcGraphDistFrom(int slot, int otherSlot) {
+        return proximityCache.getGraphDistFrom(entityIds[slot], fingerprints[slot],
+                entityIds[otherSlot], fingerprints[otherSlot]);
+    }
+
+
+    // whether an entity of the other point reaches an entity of the point, by a binary search in the vicinity
+    // of each entity; otherwise the graph proximity from the other point to the point is zero.
+    private boolean canReachFrom(int slot, int otherSlot) {
+        for (int entityId : entityIds[slot]) {
+            for (int otherEntityId : entityIds[otherSlot]) {
+                if (entityGraph.canReach(otherEntityId, entityId))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // the pairs with zero graph proximity can be skipped only when epsilon is positive.
+    private boolean usePruning() {
+        return epsilon > 0;
+    }
 
-    private Map<Long, Set<Long>> findOutNeighborhood(List<GeoTweet> points) {
-        Map<Long, Set<Long>> outNeighborhood = new HashMap<Long, Set<Long>>();
-        for (GeoTweet e : points) {
-            Set<Long> outNeighbors = findOutNeighbors(e);
-            outNeighborhood.put(e.getTweetId(), outNeighbors);
+
+    // the out neighbors of the given points, aligned with the slots; empty for the points that are skipped (slot -1).
+    private NeighborList[] findOutNeighborhood(int[] slots) {
+        NeighborList[] outNeighborhood = new NeighborList[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            outNeighborhood[i] = slots[i] < 0 ? new NeighborList() : findOutNeighbors(slots[i]);
         }
         return outNeighborhood;
     }
 
 
-    private double calcScore(Long tid) {
+    // the contributions were computed when the in-neighbors were found.
+    private double calcScore(int slot) {
         double score = 0;
-        GeoTweet e = points.get(tid);
-        Set<Long> neighborIds = neighborhood.get(tid);
-        for (Long nid : neighborIds) {
-            GeoTweet neighbor = points.get(nid);
-            score += e.calcScoreFrom(neighbor, bandwidth, entityGraph);
-        }
+        NeighborList neighbors = neighborhood[slot];
+        for (int i = 0; i < neighbors.size(); i++)
+            score += neighbors.getContribution(i);
         return score;
     }
 
+    // the score that a point receives from a neighbor at the given distance, as GeoTweet.calcScoreFrom,
+    // with the proximity from the cache.
+    private double calcContribution(double geoDist, int neighbor) {
+        double geoScore = 1.0 - (geoDist / bandwidth)*(geoDist / bandwidth); // kernel
+        double semanticScore = calcGraphDistFrom(neighbor, neighbor);
+        return geoScore * semanticScore;
+    }
+
 
-    private Long findLocalHubForOnePoint(Long tid) {
-        Long localHub = null;
+    private int findLocalHubForOnePoint(int slot) {
+        int localHub = -1;
         double maxScore = -1.0;
-        Set<Long> neighbors = neighborhood.get(tid);
+        NeighborList neighbors = neighborhood[slot];
         // if the tweet does not have any neighbor at all, return the tweet itself.
         if (neighbors.size() == 0)
-            return tid;
-        for (Long neighbor : neighbors) {
-            double score = scores.get(neighbor);
+            return slot;
+        for (int i = 0; i < neighbors.size(); i++) {
+            int neighbor = neighbors.get(i);
+            double score = scores[neighbor];
             if(score > maxScore) {
                 maxScore = score;
                 localHub = neighbor;
-            } else if (score == maxScore && localHub != null && neighbor > localHub) {
+            } else if (score == maxScore && localHub >= 0
+                    && tweetIds[neighbor] > tweetIds[localHub]) {
+                // break the tie by the larger tweet id
                 localHub = neighbor;
             }
         }
@@ -372,6 +805,10 @@ public class HubSeek {
         s += " numBatchTweets=" + numBatchTweets;
         s += "; numDeletedTweets=" + numDeletedTweet;
         s += "; numInsertedTweets=" + numInsertedTweet;
+        s += "; numLocalHubUpdates=" + numLocalHubUpdates;
+        s += "; numHubCycles=" + numHubCycles;
+        s += "; numProximityCacheHits=" + proximityCache.getNumHits();
+        s += "; numProximityCacheMisses=" + proximityCache.getNumMisses();
         s += "; timeBatchClustering=" + timeBatchClustering;
         s += "; timeDeletion=" + timeDeletion;
         s += "; timeInsertion=" + timeInsertion;
@@ -390,6 +827,14 @@ public class HubSeek {
         return numInsertedTweet;
     }
 
+    public int getNumHubCycles() {
+        return numHubCycles;
+    }
+
+    public double getProximityCacheHitRatio() {
+        return proximityCache.getHitRatio();
+    }
+
     public double getTimeBatchClustering() {
         return timeBatchClustering;
     }
@@ -404,32 +849,3 @@ public class HubSeek {
 
 }
 
-
-
-//    // update the local hubs for the remaining points
-//    private void updatelocalhubs(set<long> scorechangedpoints) {
-//        // find the points whose local hubs need to be updated.
-//        set<long> toupdatepoints = findtoupdatepoints(scorechangedpoints);
-////        system.out.println("# to update points:" + toupdatepoints.size());
-//        for (long e : toupdatepoints) {
-//            long localhub = findlocalhubforonepoint(e);
-//            localhubs.put(e, localhub);
-//        }
-//    }
-
-
-
-//    // for point p whose score has been changed, we need to update all the points who have p as an in-neighbor
-//    private Set<Long> findToUpdatePoints(Set<Long> scoreChangedPoints) {
-//        Set<Long> results = new HashSet<Long>();
-//        for (Long tid : scoreChangedPoints) {
-//            Set<Long> outNeighbors;
-//            // reuse the neighborhood info.
-////            if (outNeighborhood.containsKey(tid))
-////                outNeighbors = outNeighborhood.get(tid);
-////            else
-//            outNeighbors = findOutNeighbors(points.get(tid));
-//            results.addAll(outNeighbors);
-//        }
-//        return results;
-//    }
@@ -0,0 +1,80 @@
+package hubseek;
+
+import java.util.Arrays;
+
+/**
+ * The neighbors of a point in HubSeek, referred to by their slots, with the score contribution of each edge.
+ * The contribution of an edge is computed once when the edge is found, and reused by the score computation
+ * and the incremental updates.
+ */
+public class NeighborList {
+
+    int[] slots;
+    double[] contributions; // the score that the target of the edge receives from the source
+    int size = 0;
+
+    public NeighborList() {
+        this(4);
+    }
+
+    public NeighborList(int capacity) {
+        slots = new int[Math.max(1, capacity)];
+        contributions = new double[slots.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        return slots[index];
+    }
+
+    public double getContribution(int index) {
+        return contributions[index];
+    }
+
+    public void add(int slot, double contribution) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+            contributions = Arrays.copyOf(contributions, slots.length);
+        }
+        slots[size] = slot;
+        contributions[size] = contribution;
+        size++;
+    }
+
+    public int indexOf(int slot) {
+        for (int i = 0; i < size; i++) {
+            if (slots[i] == slot)
+                return i;
+        }
+        return -1;
+    }
+
+    // remove one occurrence of the slot by moving the last neighbor there; the order is not kept.
+    public boolean remove(int slot) {
+        int index = indexOf(slot);
+        if (index < 0)
+            return false;
+        size--;
+        slots[index] = slots[size];
+        contributions[index] = contributions[size];
+        return true;
+    }
+
+    // keep the arrays so that they can be reused.
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(slots, size));
+    }
+
+}
@@ -3,7 +3,6 @@ package hubseek;
 import clustream.Clustream;
 import geo.TweetDatabase;
 import graph.Graph;
-import rank.IDFWeighter;
 import rank.Ranker;
 
 import java.util.List;
@@ -23,7 +22,7 @@ public class OnlineDetector extends BatchDetector {
         this.updateMode = true;
         List<TweetCluster> clusters = updateClusters(deleteTweets, insertTweets, minSup);
         updateTweetDatabase(deleteTweets, insertTweets);
-        updateRanker(eta);
+        updateRanker(deleteTweets, insertTweets, eta);
         // rank the clusters as events
         events = rank(clusters, bandwidth, refTimeSpan);
         // set the stats
@@ -41,8 +40,10 @@ public class OnlineDetector extends BatchDetector {
         td.addAll(insertTd);
     }
 
-    private void updateRanker(double eta) {
-        IDFWeighter weighter = new IDFWeighter(td.getTweets());
+    // the idf counters are updated with the same batches as hubseek.
+    private void updateRanker(TweetDatabase deleteTd, TweetDatabase insertTd, double eta) {
+        weighter.remove(deleteTd.getTweets());
+        weighter.add(insertTd.getTweets());
         ranker = new Ranker(clustream, weighter, eta);
     }
 
@@ -0,0 +1,137 @@
+package hubseek;
+
+import geo.GeoTweet;
+import graph.Graph;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded LRU cache of the graph proximity between the entity sets of two tweets. The same entity
+ * sets recur in many tweets, so most proximities are computed once. The sets are keyed by their
+ * fingerprints, which are checked against the entity ids. The cache is split into segments with
+ * their own locks for the parallel phases.
+ */
+public class ProximityCache {
+
+    static final int NUM_SEGMENTS = 16;
+
+    Graph entityGraph;
+    Segment[] segments;
+    AtomicLong numHits = new AtomicLong();
+    AtomicLong numMisses = new AtomicLong();
+
+    // capacity: the max number of entity set pairs; 0 disables the cache.
+    public ProximityCache(Graph entityGraph, int capacity) {
+        this.entityGraph = entityGraph;
+        if (capacity > 0) {
+            segments = new Segment[NUM_SEGMENTS];
+            for (int i = 0; i < NUM_SEGMENTS; i++)
+                segments[i] = new Segment(Math.max(1, capacity / NUM_SEGMENTS));
+        }
+    }
+
+    // the graph proximity from the other tweet to the tweet, as GeoTweet.calcGraphDistFrom.
+    public double getGraphDistFrom(GeoTweet e, GeoTweet other) {
+        return getGraphDistFrom(e.getSortedEntityIds(), e.getEntityFingerprint(),
+                other.getSortedEntityIds(), other.getEntityFingerprint());
+    }
+
+    // the graph proximity from the other entity set to the entity set, given the sorted ids and the fingerprints.
+    public double getGraphDistFrom(int[] entityIds, long fingerprint, int[] otherEntityIds, long otherFingerprint) {
+        if (segments == null) {
+            numMisses.incrementAndGet();
+            return calcGraphDistFrom(entityIds, otherEntityIds);
+        }
+        Key key = new Key(entityIds, fingerprint, otherEntityIds, otherFingerprint);
+        Segment segment = segments[(key.hashCode() & 0x7fffffff) % NUM_SEGMENTS];
+        Double proximity;
+        synchronized (segment) {
+            proximity = segment.get(key);
+        }
+        if (proximity != null) {
+            numHits.incrementAndGet();
+            return proximity;
+        }
+        numMisses.incrementAndGet();
+        // computed outside the lock; two threads may compute the same pair, with the same value.
+        double value = calcGraphDistFrom(entityIds, otherEntityIds);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+        return value;
+    }
+
+    // the entities are visited in the sorted order, so the value does not depend on which tweets fill the cache.
+    private double calcGraphDistFrom(int[] entityIds, int[] otherEntityIds) {
+        double proximity = 0;
+        for (int entityId : entityIds) {
+            for (int otherEntityId : otherEntityIds)
+                proximity += entityGraph.getRWR(otherEntityId, entityId);
+        }
+        return proximity / (entityIds.length * otherEntityIds.length);
+    }
+
+    public long getNumHits() {
+        return numHits.get();
+    }
+
+    public long getNumMisses() {
+        return numMisses.get();
+    }
+
+    public double getHitRatio() {
+        long total = numHits.get() + numMisses.get();
+        return total == 0 ? 0 : (double) numHits.get() / total;
+    }
+
+    private static class Key {
+
+        long fingerprint;
+        long otherFingerprint;
+        int[] entityIds;
+        int[] otherEntityIds;
+
+        Key(int[] entityIds, long fingerprint, int[] otherEntityIds, long otherFingerprint) {
+            this.fingerprint = fingerprint;
+            this.otherFingerprint = otherFingerprint;
+            this.entityIds = entityIds;
+            this.otherEntityIds = otherEntityIds;
+        }
+
+        // the fingerprints can collide, so the entity ids are compared when they match.
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return fingerprint == k.fingerprint && otherFingerprint == k.otherFingerprint
+                    && Arrays.equals(entityIds, k.entityIds) && Arrays.equals(otherEntityIds, k.otherEntityIds);
+        }
+
+        @Override
+        public int hashCode() {
+            long h = fingerprint * 31 + otherFingerprint;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    // a segment keeps its entries in the access order, and evicts the least recently used one when full.
+    private static class Segment extends LinkedHashMap<Key, Double> {
+
+        int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+            return size() > capacity;
+        }
+    }
+
+}
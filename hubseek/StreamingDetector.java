@@ -0,0 +1,123 @@
+package hubseek;
+
+import clustream.Clustream;
+import geo.GeoTweet;
+import geo.TweetDatabase;
+import graph.Graph;
+import rank.Ranker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming event detection. The tweets are fed one at a time, and the detector keeps a sliding
+ * time window over them. Every slide interval, the hubseek clusters are updated with the tweets that
+ * have expired and arrived since the last slide, and then ranked as events.
+ */
+public class StreamingDetector extends BatchDetector {
+
+    long windowSize; // length of the time window
+    long slideInterval; // the events are emitted once per slide interval
+    double minSup;
+    long refTimeSpan;
+    long nextSlideTS = -1; // the end of the window at the next slide
+    List<GeoTweet> pendingTweets = new ArrayList<GeoTweet>(); // the tweets that arrived after the last slide
+    int numSlides = 0;
+
+    public StreamingDetector(Clustream clustream, Graph graph, long windowSize, long slideInterval,
+                             double bandwidth, double epsilon, double minSup, long refTimeSpan, double eta) {
+        super(clustream, graph);
+        this.windowSize = windowSize;
+        this.slideInterval = slideInterval;
+        this.bandwidth = bandwidth;
+        this.epsilon = epsilon;
+        this.minSup = minSup;
+        this.refTimeSpan = refTimeSpan;
+        this.eta = eta;
+        this.updateMode = true;
+    }
+
+    /**
+     * Feed one tweet; the tweets should come in the ascending order of timestamp.
+     * Return true if the window slides and new events are ready in getEvents().
+     */
+    public boolean process(GeoTweet tweet) {
+        long ts = tweet.getTimestamp();
+        if (nextSlideTS < 0)
+            nextSlideTS = ts + slideInterval;
+        boolean emitted = false;
+        if (ts >= nextSlideTS) {
+            emitted = slide(nextSlideTS);
+            // skip the slides in which no tweet arrives
+            while (nextSlideTS <= ts)
+                nextSlideTS += slideInterval;
+        }
+        pendingTweets.add(tweet);
+        return emitted;
+    }
+
+    // slide the window to (endTS - windowSize, endTS), and rank the clusters in the window.
+    private boolean slide(long endTS) {
+        long startTS = endTS - windowSize;
+        TweetDatabase insertTd = new TweetDatabase();
+        for (GeoTweet t : pendingTweets) {
+            if (t.getTimestamp() > startTS)
+                insertTd.add(t);
+        }
+        pendingTweets.clear();
+        if (hubSeek == null) {
+            if (insertTd.size() == 0)
+                return false;
+            // the first window is clustered in the batch mode
+            init(insertTd, windowSize, bandwidth, epsilon, eta);
+            hubSeek.cluster(insertTd.getTweets());
+        } else {
+            TweetDatabase deleteTd = new TweetDatabase();
+            for (GeoTweet t : td.getTweets()) {
+                if (t.getTimestamp() > startTS)
+                    break;
+                deleteTd.add(t);
+            }
+            hubSeek.delete(deleteTd.getTweets());
+            hubSeek.insert(insertTd.getTweets());
+            updateTweetDatabase(deleteTd, insertTd);
+            updateRanker(deleteTd, insertTd);
+            if (td.size() == 0)
+                return false;
+        }
+        this.startTS = td.getStartTimestamp();
+        this.endTS = td.getEndTimestamp();
+        List<TweetCluster> clusters = hubSeek.genClusters(minSup);
+        events = rank(clusters, bandwidth, refTimeSpan);
+        setStats();
+        numSlides++;
+        return true;
+    }
+
+    private void updateTweetDatabase(TweetDatabase deleteTd, TweetDatabase insertTd) {
+        if (deleteTd.size() >= td.size()) {
+            // every tweet in the window has expired
+            td = insertTd;
+        } else {
+            td.deleteFromHead(deleteTd.size());
+            if (insertTd.size() > 0)
+                td.addAll(insertTd);
+        }
+    }
+
+    // the idf counters are updated with the same batches as hubseek.
+    private void updateRanker(TweetDatabase deleteTd, TweetDatabase insertTd) {
+        weighter.remove(deleteTd.getTweets());
+        weighter.add(insertTd.getTweets());
+        ranker = new Ranker(clustream, weighter, eta);
+    }
+
+    public List<TweetCluster> getEvents() {
+        return events;
+    }
+
+    public int getNumSlides() {
+        return numSlides;
+    }
+
+}
@@ -2,6 +2,8 @@ package hubseek;
 
 import com.mongodb.BasicDBObject;
 import geo.GeoTweet;
+import geo.TweetStore;
+import utils.IntList;
 
 import java.util.*;
 
@@ -14,6 +16,10 @@ public class TweetCluster {
     List<GeoTweet> members = new ArrayList<GeoTweet>();
     List<Double> authority = new ArrayList<Double>();  // the authority scores for the members
     GeoTweet center;
+    // the members can also be kept as the indices in a tweet store, in which case the center is created on demand.
+    TweetStore store;
+    IntList memberIndices;
+    int centerIndex = -1;
     Map<Integer, Double> distribution = new HashMap<Integer, Double>(); // key: entity id; value: probability
     Map<Integer, Double> tfIdf = new HashMap<Integer, Double>(); // key: entity id; value: tf-idf
     // the score of this cluster
@@ -23,11 +29,23 @@ public class TweetCluster {
         this.center = center;
     }
 
+    public TweetCluster(TweetStore store, int centerIndex) {
+        this.store = store;
+        this.centerIndex = centerIndex;
+        this.memberIndices = new IntList();
+    }
+
     public void add(GeoTweet e, double score) {
         members.add(e);
         authority.add(score);
     }
 
+    // add the tweet at the index of the store.
+    public void add(int index, double score) {
+        memberIndices.add(index);
+        authority.add(score);
+    }
+
     public double getScore() {
         return score;
     }
@@ -37,11 +55,21 @@ public class TweetCluster {
     }
 
     public GeoTweet getCenter() {
+        if (center == null && store != null)
+            center = store.getTweet(centerIndex);
         return center;
     }
 
+    public long getCenterTweetId() {
+        return store == null ? center.getTweetId() : store.getTweetId(centerIndex);
+    }
+
     public int size() {
-        return members.size();
+        return store == null ? members.size() : memberIndices.size();
+    }
+
+    public long getMemberTweetId(int i) {
+        return store == null ? members.get(i).getTweetId() : store.getTweetId(memberIndices.get(i));
     }
 
     public Set<Integer> getEntityIds() {
@@ -69,16 +97,28 @@ public class TweetCluster {
     // get a map that store the number of occurrences for different entities
     public Map<Integer, Double> getEntityOccurrences() {
         Map<Integer, Double> occurrences = new HashMap<Integer, Double>();
+        if (store != null) {
+            int[] pool = store.getEntityPool();
+            for (int i = 0; i < memberIndices.size(); i++) {
+                int index = memberIndices.get(i);
+                for (int k = store.getEntityStart(index); k < store.getEntityEnd(index); k++)
+                    addOccurrence(occurrences, pool[k]);
+            }
+            return occurrences;
+        }
         for (GeoTweet e : members) {
             List<Integer> entityIds = e.getEntityIds();
-            for (Integer entityId : entityIds) {
-                double originalCnt = occurrences.containsKey(entityId) ? occurrences.get(entityId) : 0;
-                occurrences.put(entityId, originalCnt + 1);
-            }
+            for (Integer entityId : entityIds)
+                addOccurrence(occurrences, entityId);
         }
         return occurrences;
     }
 
+    private static void addOccurrence(Map<Integer, Double> occurrences, int entityId) {
+        Double originalCnt = occurrences.get(entityId);
+        occurrences.put(entityId, (originalCnt == null ? 0 : originalCnt) + 1);
+    }
+
 
     public void setScore(double score) {
         this.score = score;
@@ -93,9 +133,10 @@ public class TweetCluster {
     @Override
     public String toString() {
         String s = "# Cluster Score:" + score + "\n";
-        s += "Num of Tweets:" + this.members.size() + "\n";
-        s += "Center Tweet ID:" + this.center.getTweetId() + "\n";
-        for (GeoTweet e : members) {
+        s += "Num of Tweets:" + size() + "\n";
+        s += "Center Tweet ID:" + getCenterTweetId() + "\n";
+        for (int i = 0; i < size(); i++) {
+            GeoTweet e = store == null ? members.get(i) : store.getTweet(memberIndices.get(i));
             s += e.toString() + "\n";
         }
         return s;
@@ -105,9 +146,8 @@ public class TweetCluster {
     public BasicDBObject toBSon() {
         // members
         List<Long> tweetIds = new ArrayList<Long>();
-        for (int i=0; i < members.size(); i++) {
-            GeoTweet e = members.get(i);
-            tweetIds.add(e.getTweetId());
+        for (int i=0; i < size(); i++) {
+            tweetIds.add(getMemberTweetId(i));
         }
         BasicDBObject entities = new BasicDBObject();
         for (Integer entityId : tfIdf.keySet()) {
@@ -116,7 +156,7 @@ public class TweetCluster {
         }
         return new BasicDBObject()
                 .append("score", score)
-                .append("center", center.getTweetId())
+                .append("center", getCenterTweetId())
                 .append("size", tweetIds.size())
                 .append("members", tweetIds)
                 .append("authority", authority)
@@ -1,6 +1,7 @@
 package rank;
 
 import geo.GeoTweet;
+import geo.TweetStore;
 import hubseek.TweetCluster;
 
 import java.util.HashMap;
@@ -15,7 +16,8 @@ public class IDFWeighter {
 
     // the total number of documents in the collection.
     int N;
-    Map<Integer, Double> idfs;
+    // the number of occurrences of each entity in the collection, the idfs are computed from them on read.
+    Map<Integer, Integer> dfs;
     Map<Integer, Double> tfs;
     // normalized tf-idf weights
     Map<Integer, Double> weights;
@@ -24,24 +26,68 @@ public class IDFWeighter {
         buildIDF(tweets);
     }
 
+    // build the idfs with the tweets in [from, to) of the store.
+    public IDFWeighter(TweetStore store, int from, int to) {
+        N = 0;
+        dfs = new HashMap<Integer, Integer>();
+        add(store, from, to);
+    }
+
     // build the idfs with all the tweets in the current time window.
     public void buildIDF(List<GeoTweet> tweets) {
-        N = tweets.size();
-        idfs = new HashMap<Integer, Double>();
+        N = 0;
+        dfs = new HashMap<Integer, Integer>();
+        add(tweets);
+    }
+
+    // add the tweets that have entered the time window.
+    public void add(List<GeoTweet> tweets) {
+        N += tweets.size();
         for (GeoTweet t : tweets) {
-            List<Integer> entityIds = t.getEntityIds();
-            for (Integer entityId : entityIds) {
-                double originalCnt = idfs.containsKey(entityId) ? idfs.get(entityId) : 0;
-                idfs.put(entityId, originalCnt + 1.0);
-            }
+            for (Integer entityId : t.getEntityIds())
+                increase(entityId);
         }
-        for (Integer entityId : idfs.keySet()) {
-            double n = idfs.get(entityId);
-            double idf = Math.log((N - n + 0.5) / (n + 0.5));
-            idfs.put(entityId, idf);
+    }
+
+    // add the tweets in [from, to) of the store, read from its entity pool.
+    public void add(TweetStore store, int from, int to) {
+        N += to - from;
+        int[] pool = store.getEntityPool();
+        for (int k = store.getEntityStart(from); k < store.getEntityStart(to); k++)
+            increase(pool[k]);
+    }
+
+    // remove the tweets that have left the time window.
+    public void remove(List<GeoTweet> tweets) {
+        N -= tweets.size();
+        for (GeoTweet t : tweets) {
+            for (Integer entityId : t.getEntityIds())
+                decrease(entityId);
         }
     }
 
+    public void remove(TweetStore store, int from, int to) {
+        N -= to - from;
+        int[] pool = store.getEntityPool();
+        for (int k = store.getEntityStart(from); k < store.getEntityStart(to); k++)
+            decrease(pool[k]);
+    }
+
+    private void increase(int entityId) {
+        Integer originalCnt = dfs.get(entityId);
+        dfs.put(entityId, originalCnt == null ? 1 : originalCnt + 1);
+    }
+
+    private void decrease(int entityId) {
+        Integer originalCnt = dfs.get(entityId);
+        if (originalCnt == null)
+            return;
+        if (originalCnt <= 1)
+            dfs.remove(entityId);
+        else
+            dfs.put(entityId, originalCnt - 1);
+    }
+
     // build the tfs with the tweets in the current cluster.
     public void buildTFIDF(TweetCluster cluster) {
         weights = new HashMap<Integer, Double>(); // key: entity Id, value: tf-idf
@@ -64,7 +110,12 @@ public class IDFWeighter {
 
 
     public double getIDF(int id) {
-        return idfs.get(id);
+        double n = dfs.containsKey(id) ? dfs.get(id) : 0;
+        return Math.log((N - n + 0.5) / (n + 0.5));
+    }
+
+    public int getNumDocuments() {
+        return N;
     }
 
     public Map<Integer, Double> getWeights() {
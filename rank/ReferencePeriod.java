@@ -62,7 +62,7 @@ public class ReferencePeriod {
     private void calcWeights(Location loc, double bandwidth) {
         weights = new ArrayList<Double>();
         for (MicroCluster cluster : clusters) {
-            double dist = cluster.getCentroid().getDistance(loc.toRealVector());
+            double dist = cluster.calcDist(loc.getLng(), loc.getLat());
             double weight = 0;
             if (dist < bandwidth) {
                 weight = 1.0 - (dist / bandwidth) * (dist / bandwidth);
@@ -81,8 +81,7 @@ public class ReferencePeriod {
         for (int i = 0; i<clusters.size(); i++) {
             MicroCluster cluster = clusters.get(i);
             double weight = weights.get(i);
-            Map<Integer, Integer> wordsInCluster = cluster.getWords();
-            double wordCntInCluster = wordsInCluster.containsKey(wordId) ? wordsInCluster.get(wordId) : smoothingCnt;
+            double wordCntInCluster = cluster.containsWord(wordId) ? cluster.getWordCount(wordId) : smoothingCnt;
             result += weight * wordCntInCluster;
         }
         return result;
@@ -0,0 +1,174 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An open-addressing hash map from primitive int keys to primitive int values, in the same layout as LongIntMap.
+ * The entries are iterated by their positions: for every position below capacity() that isUsed, read keyAt
+ * and valueAt.
+ */
+public class IntIntMap {
+
+    int[] keys;
+    int[] values;
+    boolean[] used;
+    int size = 0;
+    int mask;
+
+    public IntIntMap() {
+        this(8);
+    }
+
+    public IntIntMap(int expectedSize) {
+        int capacity = 8;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    public IntIntMap(IntIntMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        used = other.used.clone();
+        size = other.size;
+        mask = other.mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return used[find(key)];
+    }
+
+    // return the value of the key, or defaultValue if the key does not exist.
+    public int get(int key, int defaultValue) {
+        int pos = find(key);
+        return used[pos] ? values[pos] : defaultValue;
+    }
+
+    public void put(int key, int value) {
+        int pos = find(key);
+        if (used[pos]) {
+            values[pos] = value;
+            return;
+        }
+        used[pos] = true;
+        keys[pos] = key;
+        values[pos] = value;
+        size++;
+        // keep the load factor below 0.5
+        if (size * 2 > keys.length)
+            rehash(keys.length * 2);
+    }
+
+    // add delta to the value of the key, which starts from 0; return the new value.
+    public int addTo(int key, int delta) {
+        int pos = find(key);
+        if (used[pos]) {
+            values[pos] += delta;
+            return values[pos];
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    public boolean remove(int key) {
+        int pos = find(key);
+        if (!used[pos])
+            return false;
+        used[pos] = false;
+        size--;
+        // shift back the entries that were displaced by the removed one
+        int gap = pos;
+        int cur = (pos + 1) & mask;
+        while (used[cur]) {
+            int home = hash(keys[cur]) & mask;
+            // move the entry if its home is not in the cyclic range (gap, cur]
+            if ((cur > gap && (home <= gap || home > cur)) || (cur < gap && home <= gap && home > cur)) {
+                keys[gap] = keys[cur];
+                values[gap] = values[cur];
+                used[gap] = true;
+                used[cur] = false;
+                gap = cur;
+            }
+            cur = (cur + 1) & mask;
+        }
+        return true;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isUsed(int pos) {
+        return used[pos];
+    }
+
+    public int keyAt(int pos) {
+        return keys[pos];
+    }
+
+    public int valueAt(int pos) {
+        return values[pos];
+    }
+
+    // a boxed copy of the entries.
+    public Map<Integer, Integer> toMap() {
+        Map<Integer, Integer> results = new HashMap<Integer, Integer>();
+        for (int pos = 0; pos < keys.length; pos++) {
+            if (used[pos])
+                results.put(keys[pos], values[pos]);
+        }
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    // find the position of the key, or the empty position where it should be inserted.
+    private int find(int key) {
+        int pos = hash(key) & mask;
+        while (used[pos] && keys[pos] != key)
+            pos = (pos + 1) & mask;
+        return pos;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i])
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, used to avoid boxing in the hot loops.
+ */
+public class IntList {
+
+    int[] data;
+    int size = 0;
+
+    public IntList() {
+        this(4);
+    }
+
+    public IntList(int capacity) {
+        data = new int[Math.max(1, capacity)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(int index) {
+        return data[index];
+    }
+
+    public void set(int index, int value) {
+        data[index] = value;
+    }
+
+    public void add(int value) {
+        if (size == data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        data[size++] = value;
+    }
+
+    public void addAll(IntList other) {
+        for (int i = 0; i < other.size; i++)
+            add(other.data[i]);
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    // remove the element at the given index by moving the last element there; the order is not kept.
+    public int removeAt(int index) {
+        int value = data[index];
+        data[index] = data[--size];
+        return value;
+    }
+
+    public int removeLast() {
+        return data[--size];
+    }
+
+    // keep the array so that it can be reused.
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+}
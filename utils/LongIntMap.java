@@ -0,0 +1,116 @@
+package utils;
+
+/**
+ * An open-addressing hash map from primitive long keys to primitive int values.
+ * It uses linear probing, and deletion shifts the following entries back so no tombstone is needed.
+ */
+public class LongIntMap {
+
+    long[] keys;
+    int[] values;
+    boolean[] used;
+    int size = 0;
+    int mask;
+
+    public LongIntMap() {
+        this(16);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return used[find(key)];
+    }
+
+    // return the value of the key, or defaultValue if the key does not exist.
+    public int get(long key, int defaultValue) {
+        int pos = find(key);
+        return used[pos] ? values[pos] : defaultValue;
+    }
+
+    public void put(long key, int value) {
+        int pos = find(key);
+        if (used[pos]) {
+            values[pos] = value;
+            return;
+        }
+        used[pos] = true;
+        keys[pos] = key;
+        values[pos] = value;
+        size++;
+        // keep the load factor below 0.5
+        if (size * 2 > keys.length)
+            rehash(keys.length * 2);
+    }
+
+    public boolean remove(long key) {
+        int pos = find(key);
+        if (!used[pos])
+            return false;
+        used[pos] = false;
+        size--;
+        // shift back the entries that were displaced by the removed one
+        int gap = pos;
+        int cur = (pos + 1) & mask;
+        while (used[cur]) {
+            int home = hash(keys[cur]) & mask;
+            // move the entry if its home is not in the cyclic range (gap, cur]
+            if ((cur > gap && (home <= gap || home > cur)) || (cur < gap && home <= gap && home > cur)) {
+                keys[gap] = keys[cur];
+                values[gap] = values[cur];
+                used[gap] = true;
+                used[cur] = false;
+                gap = cur;
+            }
+            cur = (cur + 1) & mask;
+        }
+        return true;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(used, false);
+        size = 0;
+    }
+
+    // find the position of the key, or the empty position where it should be inserted.
+    private int find(long key) {
+        int pos = hash(key) & mask;
+        while (used[pos] && keys[pos] != key)
+            pos = (pos + 1) & mask;
+        return pos;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i])
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package utils;
+
+import geo.GeoTweet;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Compare the throughput of parsing a tweet file with Scanner, as GeoTweet did before, and with TsvReader.
+ * Usage: java utils.ParserBenchmark tweetFile [numRounds]
+ */
+public class ParserBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String tweetFile = args[0];
+        int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        for (int round = 0; round < numRounds; round++) {
+            long start = System.currentTimeMillis();
+            long scannerChecksum = parseWithScanner(tweetFile);
+            long scannerTime = System.currentTimeMillis() - start;
+            start = System.currentTimeMillis();
+            TsvReader reader = new TsvReader(new FileInputStream(tweetFile));
+            long readerChecksum = 0;
+            int numTweets = 0;
+            while (reader.nextLine()) {
+                readerChecksum += checksum(new GeoTweet(reader));
+                numTweets++;
+            }
+            reader.close();
+            long readerTime = System.currentTimeMillis() - start;
+            double megaBytes = reader.getNumBytes() / 1e6;
+            System.out.println("Round " + round + ": numTweets=" + numTweets + "; MB=" + megaBytes
+                    + "; Scanner=" + rate(megaBytes, scannerTime) + " MB/s; TsvReader=" + rate(megaBytes, readerTime)
+                    + " MB/s; speedup=" + (double) scannerTime / Math.max(1, readerTime)
+                    + "; sameResults=" + (scannerChecksum == readerChecksum));
+        }
+    }
+
+    // the parsing of GeoTweet(String) with Scanner, kept here as the baseline.
+    static long parseWithScanner(String tweetFile) throws Exception {
+        BufferedReader br = new BufferedReader(new FileReader(tweetFile));
+        long checksum = 0;
+        while (true) {
+            String line = br.readLine();
+            if (line == null) break;
+            Scanner sr = new Scanner(line);
+            sr.useDelimiter("\\t");
+            long tweetId = sr.nextLong();
+            long userId = sr.nextLong();
+            long timestamp = sr.nextLong();
+            double lng = sr.nextDouble();
+            double lat = sr.nextDouble();
+            List<Integer> entityIds = new ArrayList<Integer>();
+            while (sr.hasNextInt())
+                entityIds.add(sr.nextInt());
+            checksum += checksum(tweetId, userId, timestamp, lng, lat, entityIds);
+        }
+        br.close();
+        return checksum;
+    }
+
+    static long checksum(GeoTweet t) {
+        return checksum(t.getTweetId(), t.getUserId(), t.getTimestamp(), t.getLocation().getLng(),
+                t.getLocation().getLat(), t.getEntityIds());
+    }
+
+    static long checksum(long tweetId, long userId, long timestamp, double lng, double lat, List<Integer> entityIds) {
+        long h = tweetId * 31 + userId;
+        h = h * 31 + timestamp;
+        h = h * 31 + Double.doubleToLongBits(lng);
+        h = h * 31 + Double.doubleToLongBits(lat);
+        return h * 31 + entityIds.hashCode();
+    }
+
+    static double rate(double megaBytes, long millis) {
+        return megaBytes * 1000 / Math.max(1, millis);
+    }
+
+}
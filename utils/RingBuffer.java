@@ -0,0 +1,90 @@
+package utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A growable circular array, used for the sliding windows. The elements are appended at the tail and
+ * evicted from the head in O(1), without moving the remaining elements. It is also a random access list,
+ * whose index 0 is the head.
+ */
+public class RingBuffer<E> extends AbstractList<E> implements RandomAccess {
+
+    Object[] elements;
+    int head = 0; // index of the first element in the array
+    int size = 0;
+
+    public RingBuffer() {
+        this(16);
+    }
+
+    public RingBuffer(int capacity) {
+        // the capacity is a power of two, so the positions wrap around by a mask.
+        int n = 1;
+        while (n < capacity)
+            n <<= 1;
+        elements = new Object[n];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return (E) elements[(head + index) & (elements.length - 1)];
+    }
+
+    @Override
+    public boolean add(E e) {
+        if (size == elements.length)
+            grow();
+        elements[(head + size) & (elements.length - 1)] = e;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    public E peekFirst() {
+        return size == 0 ? null : get(0);
+    }
+
+    public E removeFirst() {
+        E e = get(0);
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        modCount++;
+        return e;
+    }
+
+    // remove the first num elements.
+    public void removeFirst(int num) {
+        for (int i = 0; i < num; i++)
+            removeFirst();
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(elements, null);
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+
+    // double the capacity, and move the elements to the start of the new array.
+    private void grow() {
+        Object[] grown = new Object[elements.length * 2];
+        int firstPart = elements.length - head;
+        System.arraycopy(elements, head, grown, 0, firstPart);
+        System.arraycopy(elements, 0, grown, firstPart, head);
+        elements = grown;
+        head = 0;
+    }
+
+}
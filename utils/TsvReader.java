@@ -0,0 +1,213 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A reader for tab-delimited files over a byte buffer. The numbers are parsed directly from
+ * the bytes, so no String is created per line or per field, unlike Scanner or String.split.
+ * Usage: call nextLine() to move to the next line, then read its fields in order.
+ */
+public class TsvReader {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    // the powers of ten that are exact in double, for the fast path of parsing doubles.
+    static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    InputStream in;
+    byte[] buf;
+    int pos = 0;
+    int limit = 0;
+    byte[] line = new byte[256]; // the bytes of the current line, without the line break
+    int lineLength = 0;
+    int cursor = 0; // the start of the next field in the line
+    long numBytes = 0; // number of bytes that have been read
+
+    public TsvReader(InputStream in) {
+        this(in, 1 << 16);
+    }
+
+    public TsvReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    // move to the next line, return false at the end of the input.
+    public boolean nextLine() throws IOException {
+        lineLength = 0;
+        cursor = 0;
+        boolean found = false;
+        while (true) {
+            if (pos >= limit && !fill())
+                break;
+            found = true;
+            int start = pos;
+            while (pos < limit && buf[pos] != '\n')
+                pos++;
+            append(start, pos - start);
+            if (pos < limit) {
+                pos++; // skip the line break
+                break;
+            }
+        }
+        if (lineLength > 0 && line[lineLength - 1] == '\r')
+            lineLength--;
+        return found;
+    }
+
+    public boolean isEmptyLine() {
+        return lineLength == 0;
+    }
+
+    public boolean hasNextField() {
+        return cursor < lineLength;
+    }
+
+    // whether the next field is an integer that fits in an int.
+    public boolean hasNextInt() {
+        int end = fieldEnd();
+        int i = cursor;
+        if (i < end && (line[i] == '-' || line[i] == '+'))
+            i++;
+        if (i == end || end - i > 10)
+            return false;
+        for (; i < end; i++) {
+            if (line[i] < '0' || line[i] > '9')
+                return false;
+        }
+        long value = parseLong(cursor, end);
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    public long nextLong() {
+        int end = fieldEnd();
+        long value = parseLong(cursor, end);
+        cursor = end + 1;
+        return value;
+    }
+
+    public int nextInt() {
+        int end = fieldEnd();
+        long value = parseLong(cursor, end);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("Value out of int range: " + new String(line, cursor, end - cursor, UTF8));
+        cursor = end + 1;
+        return (int) value;
+    }
+
+    public double nextDouble() {
+        int end = fieldEnd();
+        double value = parseDouble(cursor, end);
+        cursor = end + 1;
+        return value;
+    }
+
+    public String next() {
+        int end = fieldEnd();
+        String value = new String(line, cursor, end - cursor, UTF8);
+        cursor = end + 1;
+        return value;
+    }
+
+    public void skipField() {
+        cursor = fieldEnd() + 1;
+    }
+
+    public long getNumBytes() {
+        return numBytes;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        while (n == 0)
+            n = in.read(buf, 0, buf.length);
+        if (n < 0)
+            return false;
+        pos = 0;
+        limit = n;
+        numBytes += n;
+        return true;
+    }
+
+    private void append(int start, int length) {
+        if (lineLength + length > line.length)
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        System.arraycopy(buf, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private int fieldEnd() {
+        int end = cursor;
+        while (end < lineLength && line[end] != '\t')
+            end++;
+        return end;
+    }
+
+    private long parseLong(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 18)
+            return Long.parseLong(new String(line, start, end - start, UTF8)); // empty or possibly overflows
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Not a number: " + new String(line, start, end - start, UTF8));
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // plain decimals with at most 15 significant digits are exact: the mantissa and the power of ten are
+    // both exact doubles, so one division or multiplication rounds correctly, the same as Double.parseDouble.
+    // All the other forms fall back to Double.parseDouble.
+    private double parseDouble(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line[i] == '-' || line[i] == '+')) {
+            negative = line[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int scale = 0; // number of digits after the decimal point
+        boolean seenPoint = false;
+        boolean seenDigit = false;
+        boolean valid = true;
+        for (; i < end; i++) {
+            byte b = line[i];
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                // the leading zeros are not significant digits
+                if (mantissa != 0 || b != '0')
+                    numDigits++;
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenPoint)
+                    scale++;
+                if (numDigits > 15)
+                    break;
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                valid = false;
+                break;
+            }
+        }
+        if (!valid || !seenDigit || i < end || numDigits > 15 || scale > 22)
+            return Double.parseDouble(new String(line, start, end - start, UTF8));
+        double value = scale == 0 ? mantissa : mantissa / POW10[scale];
+        return negative ? -value : value;
+    }
+
+}